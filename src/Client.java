@@ -1,23 +1,45 @@
 import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 
 public class Client {
 
     private String username;
     private int rank;
     private final Socket socket;
-    private long lastResponseTime;
+    // Server side link to the Client (see Connection)
+    private final Connection connection;
+    // When the Client joined the queue (System.nanoTime)
+    private volatile long queueTime;
+    // Last queue position sent to the Client (see QueueNotifier)
+    private volatile int reportedPosition;
     private final BufferedReader consoleReader;
-    private final BufferedReader serverReader;
-    private final PrintWriter serverWriter;
+    private final WireProtocol.Reader serverReader;
+    private final OutputStream serverWriter;
+    // Asks the Server for the binary protocol on WELCOME
+    private final boolean requestBinaryProtocol;
+    // Set once the binary protocol was requested, every following message is a frame
+    private boolean binaryProtocol = false;
     private int currentScore;
 
-    public Client(Socket socket) throws IOException {
+    public Client(Socket socket, boolean requestBinaryProtocol) throws IOException {
         this.socket = socket;
         this.consoleReader = new BufferedReader(new InputStreamReader(System.in));
-        this.serverReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.serverWriter = new PrintWriter(socket.getOutputStream(), true);
+        this.serverReader = new WireProtocol.Reader(new BufferedInputStream(socket.getInputStream()));
+        this.serverWriter = new BufferedOutputStream(socket.getOutputStream());
+        this.requestBinaryProtocol = requestBinaryProtocol;
+        this.connection = null;
+    }
+
+    // Server side representation of a connected Client
+    public Client(Connection connection) {
+        this.socket = null;
+        this.consoleReader = null;
+        this.serverReader = null;
+        this.serverWriter = null;
+        this.requestBinaryProtocol = false;
+        this.connection = connection;
     }
 
     public String getUsername() {
@@ -28,6 +50,10 @@ public class Client {
         return this.socket;
     }
 
+    public Connection getConnection() {
+        return this.connection;
+    }
+
     public int getRank() {
         return this.rank;
     }
@@ -40,27 +66,55 @@ public class Client {
         this.rank = rank;
     }
 
-    // Updates lastResponseTime to current time
-    public void setLastResponseTime() {
-        this.lastResponseTime = System.currentTimeMillis();
+    public void setQueueTime(long queueTime) {
+        this.queueTime = queueTime;
+    }
+
+    public void setReportedPosition(int reportedPosition) {
+        this.reportedPosition = reportedPosition;
+    }
+
+    public int getReportedPosition() {
+        return reportedPosition;
     }
 
-    public long getLastResponseTime() {
-        return lastResponseTime;
+    public long getQueueTime() {
+        return queueTime;
     }
 
     // Send a message to the server
-    public void sendMessageToServer(String message) {
-        serverWriter.println(message);
+    public void sendMessageToServer(String message) throws IOException {
+        if (binaryProtocol) {
+            WireProtocol.writeFrame(serverWriter, message);
+        } else {
+            serverWriter.write(message.getBytes(StandardCharsets.UTF_8));
+            serverWriter.write('\n');
+        }
+        serverWriter.flush();
+    }
+
+    // Send a question answer to the server
+    private void sendAnswerToServer(String answer) throws IOException {
+        if (binaryProtocol) {
+            WireProtocol.writeAnswer(serverWriter, answer.equalsIgnoreCase("true"));
+            serverWriter.flush();
+        } else {
+            sendMessageToServer(answer);
+        }
     }
 
     public int getScore() {
         return currentScore;
     }
 
-    // Increments client's score by 1
-    public void incrementScore() {
-        this.currentScore++;
+    // Adds 'points' to client's score
+    public void addToScore(int points) {
+        this.currentScore += points;
+    }
+
+    // Scores start from 0 in every game
+    public void resetScore() {
+        this.currentScore = 0;
     }
 
     // Handle client authentication
@@ -105,6 +159,31 @@ public class Client {
         }
     }
 
+    // Handles a frame received from server (binary protocol)
+    // Dispatches on the opcode, only messages with content are decoded
+    private void handleServerFrame() throws IOException {
+        switch (serverReader.opcode()) {
+            case WireProtocol.PING:
+                sendMessageToServer(Communication.PONG);
+                break;
+            case WireProtocol.TOKEN:
+                storeToken(serverReader.text());
+                break;
+            case WireProtocol.RECONNECT_SUCCESS:
+                System.out.println("Reconnected with position " + serverReader.number());
+                break;
+            case WireProtocol.QUEUE_POSITION:
+                System.out.println(Communication.QUEUE_POSITION + " " + serverReader.number());
+                break;
+            case WireProtocol.TEXT:
+                System.out.println(serverReader.text());
+                break;
+            default:
+                handleServerMessage(serverReader.toLine());
+                break;
+        }
+    }
+
     // Main state machine to handle messages received from server
     private void handleServerMessage(String serverMessage) throws IOException {
 
@@ -117,7 +196,8 @@ public class Client {
         } else if (serverMessage.equals(Communication.WELCOME)) {
             handleServerWelcome();
         } else if (serverMessage.equals(Communication.REQUEST_TOKEN)) {
-            sendMessageToServer(retrieveToken());
+            String token = retrieveToken();
+            sendMessageToServer(token != null ? token : "");
         } else if (serverMessage.startsWith("RECONNECT")) {
             handleServerReconnection(serverMessage);
         } else if (Communication.REGISTER_MESSAGES.contains(serverMessage)) {
@@ -139,8 +219,9 @@ public class Client {
             if (answer == null || answer.isEmpty() || !validateAnswer(answer)) {
                 System.out.println("Invalid answer!");
                 handleQuestionAnswer();
+                return;
             }
-            sendMessageToServer(answer);
+            sendAnswerToServer(answer);
         } catch (IOException e) {
             System.out.println("Error getting answer");
         }
@@ -175,9 +256,15 @@ public class Client {
 
     // Read messages received from server
     private void readServerMessages() throws IOException {
-        String serverMessage;
-        while (!socket.isClosed() && (serverMessage = serverReader.readLine()) != null) {
-            handleServerMessage(serverMessage);
+        while (!socket.isClosed()) {
+            if (binaryProtocol) {
+                if (!serverReader.nextFrame()) break;
+                handleServerFrame();
+            } else {
+                String serverMessage = serverReader.readLine();
+                if (serverMessage == null) break;
+                handleServerMessage(serverMessage);
+            }
         }
     }
 
@@ -259,23 +346,25 @@ public class Client {
         System.out.println("3. Create Account");
         System.out.print("Select: ");
         String answer = consoleReader.readLine();
+        String option = requestBinaryProtocol ? " " + Communication.BINARY : "";
 
         switch (answer) {
             case "1":
-                sendMessageToServer(Communication.CLIENT_AUTH);
+                sendMessageToServer(Communication.CLIENT_AUTH + option);
                 break;
 
             case "2":
-                sendMessageToServer(Communication.CLIENT_RECONNECT);
+                sendMessageToServer(Communication.CLIENT_RECONNECT + option);
                 break;
 
             case "3":
-                sendMessageToServer(Communication.CLIENT_REGISTER);
+                sendMessageToServer(Communication.CLIENT_REGISTER + option);
                 break;
         
             default:
-                break;
+                return;
         }
+        binaryProtocol = requestBinaryProtocol;
     }
 
     // Select if client wants to requeue or quit after a game finishes
@@ -304,15 +393,16 @@ public class Client {
 
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("Usage: java Client <hostname> <port>");
+            System.out.println("Usage: java Client <hostname> <port> [binary]");
             return;
         }
 
         String hostname = args[0];
         int port = Integer.parseInt(args[1]);
+        boolean binary = args.length >= 3 && args[2].equals("binary");
 
         try (Socket socket = new Socket(hostname, port)) {
-            Client client = new Client(socket);
+            Client client = new Client(socket, binary);
             client.readServerMessages();
         } catch (UnknownHostException ex) {
             System.out.println("Server not found: " + ex.getMessage());
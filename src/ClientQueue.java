@@ -0,0 +1,397 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Queue of Clients waiting for a game
+// - Every Client gets a ticket (increasing number) when he joins, the queue is ordered by ticket
+// - 'entries' is a concurrent skip list, so iterating the queue (pings, notifications, matchmaking)
+//   never takes a lock
+// - A Fenwick tree over tickets counts the Clients ahead of a ticket, giving a queue position in O(log n)
+//   When a ticket falls outside of the tree, tickets are renumbered densely (see rebuild), so the tree follows
+//   the size of the queue, not the number of Clients that joined since the oldest one
+// - 'byRank' orders the same Clients by (rank, ticket), so the closest ranked opponents are found in O(log n)
+// - 'epoch' counts the changes that move queued Clients (departures, rejoins), so QueueNotifier knows
+//   when positions may have changed. Joining at the end moves nobody
+// - A Client that loses connection keeps his place for RECONNECT_WINDOW (see rejoin)
+// Changes take 'queue_lock' for a few map and array updates only
+// No I/O is ever done here, callers talk to the Clients after the queue was updated
+public class ClientQueue {
+    private static final int INITIAL_CAPACITY = 64;
+    // Time a Client that lost connection keeps his place in the queue
+    private static final long RECONNECT_WINDOW = TimeUnit.MINUTES.toNanos(5);
+
+    // {ticket : client}
+    private final ConcurrentSkipListMap<Long, Client> entries = new ConcurrentSkipListMap<>();
+    // {(rank, ticket) : client}
+    private final ConcurrentSkipListMap<RankKey, Client> byRank = new ConcurrentSkipListMap<>();
+    // {client : (rank, ticket)}
+    private final Map<Client, RankKey> keys = new ConcurrentHashMap<>();
+    // - Guarded by queue_lock -
+    // {username : departure}
+    // Clients that disconnected while queued in the last RECONNECT_WINDOW, so they can get their place back
+    private final Map<String, Departure> departures = new HashMap<>();
+    // Same Clients, oldest departure first, so they are forgotten once their window passed
+    private final ArrayDeque<Departure> departureOrder = new ArrayDeque<>();
+    // Their tickets, so none of them is handed out again while their Client may come back
+    private final Set<Long> heldTickets = new HashSet<>();
+
+    private final ReentrantLock queue_lock = new ReentrantLock();
+    private long nextTicket = 0;
+    private volatile int size = 0;
+    private volatile long epoch = 0;
+
+    // Fenwick tree, tree[ticket - baseTicket + 1] counts queued tickets
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    private long baseTicket = 0;
+
+    // Place left by a Client that lost connection, at 'time' (System.nanoTime)
+    private record Departure(String username, long ticket, long time) {
+    }
+
+    // Position of a Client in the rank index
+    // The ticket breaks ties, older Clients come first
+    private record RankKey(int rank, long ticket) implements Comparable<RankKey> {
+        @Override
+        public int compareTo(RankKey other) {
+            int byRank = Integer.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(ticket, other.ticket);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public boolean contains(Client client) {
+        return keys.containsKey(client);
+    }
+
+    // Clients in queue order
+    // Weakly consistent: reflects changes made while iterating or not, never blocks them
+    // A Client may show up twice if the tickets are renumbered meanwhile (see rebuild)
+    public Collection<Client> clients() {
+        return entries.values();
+    }
+
+    // Clients ordered by rank (older first on ties)
+    // Weakly consistent, like clients()
+    public Collection<Client> clientsByRank() {
+        return byRank.values();
+    }
+
+    // Adds a Client to the end of the queue
+    // Returns his queue position
+    public int add(Client client) {
+        queue_lock.lock();
+        try {
+            insert(client, nextTicket++);
+            return size;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Adds a Client back to the place he had when he disconnected (see removeDisconnected)
+    // Goes to the end of the queue if he had none, or left more than RECONNECT_WINDOW ago
+    // Returns his queue position
+    public int rejoin(Client client) {
+        queue_lock.lock();
+        try {
+            expireDepartures();
+            Departure departure = departures.remove(client.getUsername());
+            Long ticket = null;
+            if (departure != null) {
+                ticket = departure.ticket();
+                heldTickets.remove(ticket);
+            }
+
+            if (ticket == null || entries.isEmpty()) {
+                ticket = nextTicket++;
+            } else if (ticket < entries.firstKey()) {
+                // Everyone that was ahead of him already left, he goes first
+                // The tickets below the first one may still belong to Clients that could come back
+                ticket = entries.firstKey() - 1;
+                while (heldTickets.contains(ticket)) {
+                    ticket--;
+                }
+            }
+            ticket = insert(client, ticket);
+            // Back to his old place, the Clients behind him move
+            if (ticket != nextTicket - 1) epoch++;
+            return position(ticket);
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Removes a Client from the queue
+    // Returns false if he wasn't queued
+    public boolean remove(Client client) {
+        queue_lock.lock();
+        try {
+            return delete(client) != null;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Removes a Client that lost connection, remembering his place for a reconnection
+    public boolean removeDisconnected(Client client) {
+        queue_lock.lock();
+        try {
+            Long ticket = delete(client);
+            if (ticket == null) return false;
+
+            expireDepartures();
+            Departure departure = new Departure(client.getUsername(), ticket, System.nanoTime());
+            Departure previous = departures.put(client.getUsername(), departure);
+            if (previous != null) heldTickets.remove(previous.ticket());
+            heldTickets.add(ticket);
+            departureOrder.add(departure);
+            return true;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Removes all 'clients' from the queue, or none of them if any isn't queued anymore
+    // (e.g. another matchmaking pass took him first)
+    public boolean removeAll(List<Client> clients) {
+        queue_lock.lock();
+        try {
+            for (Client client : clients) {
+                if (!keys.containsKey(client)) return false;
+            }
+            for (Client client : clients) {
+                delete(client);
+            }
+            return true;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Removes and returns the first 'count' Clients
+    // Returns null if there aren't enough Clients queued
+    public List<Client> poll(int count) {
+        queue_lock.lock();
+        try {
+            if (size < count) return null;
+
+            List<Client> polled = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Client client = entries.firstEntry().getValue();
+                delete(client);
+                polled.add(client);
+            }
+            return polled;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Gets a Client's queue position
+    // Returns -1 if client is not in the queue
+    public int positionOf(Client client) {
+        queue_lock.lock();
+        try {
+            RankKey key = keys.get(client);
+            return key != null ? position(key.ticket()) : -1;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Clients at positions 'from' to 'from + count - 1' (or the end of the queue), in queue order
+    // The i-th one is at position 'from + i', all taken at the same instant
+    // O(log n + count)
+    public List<Client> range(int from, int count) {
+        queue_lock.lock();
+        try {
+            if (from < 1 || from > size) return List.of();
+
+            List<Client> range = new ArrayList<>(Math.min(count, size - from + 1));
+            for (Client client : entries.tailMap(ticketAt(from)).values()) {
+                if (range.size() == count) break;
+                range.add(client);
+            }
+            return range;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // Queued Clients around 'client' in the rank index, in rank order:
+    // up to 'count' Clients below him, himself and up to 'count' Clients above him
+    // O(log n + count)
+    // Returns an empty list if he isn't queued
+    // Takes queue_lock, so the tickets aren't renumbered meanwhile (see rebuild)
+    public List<Client> rankNeighbourhood(Client client, int count) {
+        queue_lock.lock();
+        try {
+            RankKey key = keys.get(client);
+            if (key == null) return List.of();
+
+            List<Client> neighbourhood = new ArrayList<>(2 * count + 1);
+            for (Client lower : byRank.headMap(key, false).descendingMap().values()) {
+                if (neighbourhood.size() == count) break;
+                neighbourhood.add(lower);
+            }
+            Collections.reverse(neighbourhood);
+            neighbourhood.add(client);
+
+            int higherCount = 0;
+            for (Client higher : byRank.tailMap(key, false).values()) {
+                if (higherCount++ == count) break;
+                neighbourhood.add(higher);
+            }
+            return neighbourhood;
+        } finally {
+            queue_lock.unlock();
+        }
+    }
+
+    // - Called with queue_lock held -
+
+    // Forgets the places kept for more than RECONNECT_WINDOW
+    // O(1) amortized, each departure is dropped once
+    private void expireDepartures() {
+        long now = System.nanoTime();
+        while (!departureOrder.isEmpty() && now - departureOrder.peek().time() > RECONNECT_WINDOW) {
+            Departure expired = departureOrder.poll();
+            // Unless he came back, or left again since
+            Departure current = departures.get(expired.username());
+            if (current != null && current.time() == expired.time()) {
+                departures.remove(expired.username());
+                heldTickets.remove(current.ticket());
+            }
+        }
+    }
+
+    // Returns the ticket 'client' got, renumbered if the tree was rebuilt
+    private long insert(Client client, long ticket) {
+        if (entries.containsKey(ticket)) {
+            throw new IllegalStateException("Ticket " + ticket + " is already queued");
+        }
+        if (ticket < baseTicket || ticket - baseTicket >= tree.length - 1) {
+            ticket = rebuild(ticket);
+        }
+        RankKey key = new RankKey(client.getRank(), ticket);
+        client.setQueueTime(System.nanoTime());
+        entries.put(ticket, client);
+        byRank.put(key, client);
+        keys.put(client, key);
+        update(ticket, 1);
+        size++;
+        return ticket;
+    }
+
+    private Long delete(Client client) {
+        RankKey key = keys.remove(client);
+        if (key == null) return null;
+        entries.remove(key.ticket());
+        byRank.remove(key);
+        update(key.ticket(), -1);
+        size--;
+        epoch++;
+        return key.ticket();
+    }
+
+    // Number of queued tickets up to (and including) 'ticket'
+    private int position(long ticket) {
+        int sum = 0;
+        for (int i = (int) (ticket - baseTicket + 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // Ticket at 'position', 1 <= position <= size
+    // Walks down the tree, taking every subtree with fewer tickets than still needed
+    private long ticketAt(int position) {
+        int index = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (index + step < tree.length && tree[index + step] < position) {
+                index += step;
+                position -= tree[index];
+            }
+        }
+        // tree[index + 1] holds the ticket
+        return baseTicket + index;
+    }
+
+    private void update(long ticket, int delta) {
+        for (int i = (int) (ticket - baseTicket + 1); i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Renumbers the queued tickets, the held ones and 'newTicket' densely, in the same order, and sizes the tree
+    // for them with room on both sides, so the next rebuild only comes after about as many joins or front rejoins
+    // O(n log n), amortized over those
+    // Returns the new number of 'newTicket'
+    private long rebuild(long newTicket) {
+        Map<Long, Departure> held = new HashMap<>();
+        for (Departure departure : departures.values()) {
+            held.put(departure.ticket(), departure);
+        }
+        long[] tickets = new long[entries.size() + held.size() + 1];
+        int count = 0;
+        for (long ticket : entries.keySet()) {
+            tickets[count++] = ticket;
+        }
+        for (long ticket : held.keySet()) {
+            tickets[count++] = ticket;
+        }
+        tickets[count++] = newTicket;
+        Arrays.sort(tickets);
+
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * count) {
+            capacity *= 2;
+        }
+        // Above every ticket in use, so a renumbered ticket never collides with one not renumbered yet
+        baseTicket = nextTicket;
+        tree = new int[capacity + 1];
+        long first = baseTicket + capacity / 4;
+
+        long renumberedNewTicket = -1;
+        heldTickets.clear();
+        for (int i = 0; i < count; i++) {
+            long ticket = first + i;
+            Client client = entries.remove(tickets[i]);
+            if (client != null) {
+                RankKey key = keys.get(client);
+                RankKey renumbered = new RankKey(key.rank(), ticket);
+                byRank.remove(key);
+                entries.put(ticket, client);
+                byRank.put(renumbered, client);
+                keys.put(client, renumbered);
+                update(ticket, 1);
+            } else if (held.containsKey(tickets[i])) {
+                Departure departure = held.get(tickets[i]);
+                departures.put(departure.username(), new Departure(departure.username(), ticket, departure.time()));
+                heldTickets.add(ticket);
+            } else {
+                renumberedNewTicket = ticket;
+            }
+        }
+        nextTicket = first + count;
+        return renumberedNewTicket;
+    }
+}
@@ -4,6 +4,10 @@ public class Communication {
 
     // Server sends Client welcome packet
     public static final String WELCOME = "WELCOME";
+    // Client asks to switch to the binary protocol (see WireProtocol)
+    // Appended to the Client's answer to WELCOME, every following message is a binary frame
+    // Example -> "CLIENT_AUTH BINARY"
+    public static final String BINARY = "BINARY";
 
 
     // Client informs Server he wants to authenticate (log in)
@@ -71,6 +75,12 @@ public class Communication {
     public static final String ANSWER = "ANSWER";
 
 
+    // Server informs Client of his queue position
+    // Message content -> Queue position
+    // Example -> "Your queue position: 3"
+    public static final String QUEUE_POSITION = "Your queue position:";
+
+
     // Server asks Client to requeue or quit
     public static final String REQUEUE_OR_QUIT = "REQUEUE_OR_QUIT";
     // Client informs Server he wants to Requeue
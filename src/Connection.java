@@ -0,0 +1,71 @@
+import java.io.IOException;
+
+// Line oriented link between the Server and a single Client
+// Lives as long as the client's connection, so buffers are allocated once and reused
+// Implemented by both transports:
+// - SocketConnection -> blocking socket, one virtual thread per connection
+// - NioConnection    -> non-blocking channel driven by the NioServer selector
+public interface Connection {
+
+    // Queues a line to be sent on the next flush
+    default void send(String message) throws IOException {
+        send(EncodedMessage.of(message));
+    }
+
+    // Queues an already encoded line (e.g. shared by a broadcast) to be sent on the next flush
+    // Never waits for the client, lines wait in his bounded OutboundQueue
+    // Returns false if the queue was full and the line was dropped (see EncodedMessage.Overflow)
+    // Closes the connection and throws an IOException if an essential line didn't fit: the client is too slow
+    boolean send(EncodedMessage message) throws IOException;
+
+    // Sends 'messages' right away, in a single write
+    // Returns false if any of them was dropped
+    default boolean offer(EncodedMessage... messages) throws IOException {
+        boolean queued = true;
+        for (EncodedMessage message : messages) {
+            queued &= send(message);
+        }
+        flush();
+        return queued;
+    }
+
+    // Hands every queued line to the writer
+    void flush() throws IOException;
+
+    // Sends a line to the client right away
+    default void writeLine(String message) throws IOException {
+        send(message);
+        flush();
+    }
+
+    // Switches both directions to binary frames (see WireProtocol)
+    // Lines keep being used on this side, they are translated to and from frames
+    void enableBinaryProtocol();
+
+    // Blocks until a line is received from the client
+    // Returns null when the client closed the connection
+    // PONGs are consumed by the connection (see getLastPongTime), they are never returned here
+    String readLine() throws IOException;
+
+    // Drops the lines received but not read yet (e.g. an answer that came after its deadline)
+    void discardReceived();
+
+    // Receives the lines of a client as they arrive, instead of a thread blocking in readLine
+    interface LineListener {
+        // Runs on the thread reading the connection, so it must be short
+        // 'line' is null when the client closed the connection
+        void onLine(String line);
+    }
+
+    // Hands every line received to 'listener' instead of readLine, until set back to null
+    // Lines received before are dropped
+    void setLineListener(LineListener listener);
+
+    // When (System.nanoTime) the last PONG was received, or the connection was opened if none was
+    long getLastPongTime();
+
+    // Closes the connection
+    void close() throws IOException;
+
+    boolean isClosed();
+}
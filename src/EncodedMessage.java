@@ -0,0 +1,95 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A protocol line encoded once, and shared by every Connection it is sent to (e.g. a Game broadcast)
+// Holds both encodings: the text line and the binary frame (see WireProtocol), each made on first use
+// Connections only get read-only views of the bytes, so the same message can sit in many write queues at once
+// Carries what a Connection does with it when the client's outbound queue is full (see OutboundQueue)
+public final class EncodedMessage {
+
+    // What happens to a message that doesn't fit in the client's outbound queue
+    public enum Overflow {
+        // Essential (e.g. a question), the client is too slow and gets disconnected
+        DISCONNECT,
+        // Non-essential (e.g. a countdown step), the message is dropped
+        DROP,
+        // Only the latest one matters (e.g. the queue position), it replaces the one with the same key
+        // still waiting in the queue, or is dropped
+        COALESCE
+    }
+
+    private final String message;
+    private final Overflow overflow;
+    // Messages that replace each other, only for COALESCE
+    private final String key;
+    // Encoded on first use, racing threads encode the same bytes
+    private volatile byte[] line;
+    private volatile byte[] frame;
+
+    private EncodedMessage(String message, Overflow overflow, String key) {
+        this.message = message;
+        this.overflow = overflow;
+        this.key = key;
+    }
+
+    public static EncodedMessage of(String message) {
+        return new EncodedMessage(message, Overflow.DISCONNECT, null);
+    }
+
+    public static EncodedMessage droppable(String message) {
+        return new EncodedMessage(message, Overflow.DROP, null);
+    }
+
+    // Replaces any message with the same 'key' that wasn't written yet
+    public static EncodedMessage coalescing(String key, String message) {
+        return new EncodedMessage(message, Overflow.COALESCE, key);
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // Read-only view of the bytes, with its own position
+    public ByteBuffer buffer(boolean binaryProtocol) throws IOException {
+        return ByteBuffer.wrap(bytes(binaryProtocol)).asReadOnlyBuffer();
+    }
+
+    // Writes the bytes to 'output', without copying them first
+    public void writeTo(OutputStream output, boolean binaryProtocol) throws IOException {
+        output.write(bytes(binaryProtocol));
+    }
+
+    // Throws an IOException if the message can't be framed (e.g. a malformed queue position)
+    private byte[] bytes(boolean binaryProtocol) throws IOException {
+        if (binaryProtocol) {
+            byte[] encoded = frame;
+            if (encoded == null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(message.length() + 4);
+                WireProtocol.writeFrame(output, message);
+                encoded = frame = output.toByteArray();
+            }
+            return encoded;
+        }
+
+        byte[] encoded = line;
+        if (encoded == null) {
+            byte[] text = message.getBytes(StandardCharsets.UTF_8);
+            encoded = new byte[text.length + 1];
+            System.arraycopy(text, 0, encoded, 0, text.length);
+            encoded[text.length] = '\n';
+            line = encoded;
+        }
+        return encoded;
+    }
+}
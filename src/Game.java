@@ -1,223 +1,377 @@
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import game_logic.TriviaResponse;
+import game_logic.QuestionStore;
 import game_logic.TriviaResult;
 
+// A game is a state machine run by the GameEngine, it never blocks a thread:
+//   COUNTDOWN -> QUESTION (answer window) -> RESULTS -> ... -> QUESTION -> RESULTS -> ENDED
+// - Timed events (countdown steps, answer deadlines) are scheduled on the engine
+// - Answers are handed over as they arrive (see onLine), a round closes once every player answered or its time is up
+// - Answer latencies are measured on the server, from the moment the question is sent (System.nanoTime),
+//   and may count towards the score (see Scoring)
+// - A player that doesn't answer in time gets a timeout, and an answer arriving after the round closed
+//   (during RESULTS) is recorded as a late one, instead of being taken as the answer to the next question
+// Every transition holds game_lock, and events left behind by an earlier state are ignored
 public class Game {
+    private enum State {
+        COUNTDOWN,
+        QUESTION,
+        RESULTS,
+        ENDED
+    }
+
     private final int gameId;
     private final List<Client> playerList;
-    private final Lock playerList_lock = new ReentrantLock();
-    private TriviaResponse triviaResponse;
-    private volatile boolean isGameRunning;
+    // Guards the state of the game, players' answers included
+    private final ReentrantLock game_lock = new ReentrantLock();
+    // Shared with every other game (see QuestionBank), never modified
+    private final QuestionStore questionStore;
+    // Questions of each round, drawn when the game starts
+    private List<TriviaResult> questions;
     private final int ROUNDS = 4;
-    private final ExecutorService playerThreadPool;
+    // Questions asked, null for any
+    // Players answer True or False, so only boolean questions
+    private final String QUESTION_CATEGORY = null;
+    private final String QUESTION_DIFFICULTY = null;
+    private final String QUESTION_TYPE = "boolean";
+    // Seconds counted down before the first question
+    private final int COUNTDOWN = 5;
+    // Time (in ms) between the end of a round and the next question, late answers land there
+    private final int RESULTS_DELAY = 1000;
+    // Time (in ns) players have to answer a question
+    private final long answerWindow;
+    private final Scoring scoring;
+    private static final EncodedMessage PROVIDE_ANSWER = EncodedMessage.of(Communication.PROVIDE_ANSWER);
+    private final GameEngine engine;
     private final UserDatabase userDatabase;
-    private final ReentrantLock userDatabase_lock;
     private final Server server;
 
-    // Amount of rank a player wins (or looses) at the end of a game
+    // - Guarded by game_lock -
+    private State state;
+    private int round;
+    private long startTime;
+    // Per player, same order as playerList
+    private final boolean[] answered;
+    private final boolean[] disconnected;
+    // When the current question was sent (System.nanoTime)
+    private final long[] questionSentAt;
+    private final int[] timeouts;
+    private int pendingAnswers;
+    // Deadline of the current round
+    private TimingWheel.Timeout roundTimeout;
+    // Latency (in ns) of every answer given in time, at most one per player and round
+    private final long[] latencies;
+    private int answerCount;
+    private int lateAnswers;
+
+    // Amount of rank the first player wins (and the last one looses) at the end of a game
     private final int RANK_INCREMENT = 50;
 
-    public Game(int gameId, List<Client> playerList, UserDatabase userDatabase, ReentrantLock userDatabase_lock, Server server) {
+    // 'answerWindow' is the time (in seconds) players have to answer each question
+    public Game(int gameId, List<Client> playerList, QuestionStore questionStore, int answerWindow, Scoring scoring,
+                UserDatabase userDatabase, Server server) {
         this.gameId = gameId;
-        this.playerList = playerList;
-        this.triviaResponse = new TriviaResponse();
-        this.isGameRunning = false;
-        this.playerThreadPool = Executors.newVirtualThreadPerTaskExecutor();
+        this.playerList = List.copyOf(playerList);
+        this.questionStore = questionStore;
+        this.answerWindow = TimeUnit.SECONDS.toNanos(answerWindow);
+        this.scoring = scoring;
+        this.engine = server.getGameEngine();
         this.userDatabase = userDatabase;
-        this.userDatabase_lock = userDatabase_lock;
         this.server = server;
+        int players = this.playerList.size();
+        this.answered = new boolean[players];
+        this.disconnected = new boolean[players];
+        this.questionSentAt = new long[players];
+        this.timeouts = new int[players];
+        this.latencies = new long[players * ROUNDS];
     }
 
     public int getId() {
         return this.gameId;
     }
 
-    // Loads trivia questions from database
-    public void loadQuestions(String dataPath) {
-        File jsonFile = new File(dataPath);
-        ObjectMapper objectMapper = new ObjectMapper();
+    // Starts the game, returns right away
+    // Plays one round per question drawn: ROUNDS, or fewer if not enough questions match (see QuestionStore.sample)
+    public void start() {
+        questions = questionStore.sample(ROUNDS, QUESTION_CATEGORY, QUESTION_DIFFICULTY, QUESTION_TYPE);
+        if (questions.isEmpty()) {
+            cancel();
+            return;
+        }
+        if (questions.size() < ROUNDS) {
+            Server.serverLog(String.format("[Game %d] Only %d questions available, playing %d rounds instead of %d", gameId, questions.size(), questions.size(), ROUNDS));
+        }
+
+        game_lock.lock();
         try {
-            triviaResponse = objectMapper.readValue(jsonFile, new TypeReference<>() {
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
+            state = State.COUNTDOWN;
+            startTime = System.nanoTime();
+            for (int i = 0; i < playerList.size(); i++) {
+                int player = i;
+                playerList.get(i).resetScore();
+                playerList.get(i).getConnection().setLineListener(line -> onLine(player, line));
+            }
+            broadcast("--------------------- Welcome to the Trivia! ---------------------",
+                    "Questions will be given shortly. Please answer with True or False.");
+        } finally {
+            game_lock.unlock();
         }
+        engine.schedule(() -> countdown(COUNTDOWN), 1, TimeUnit.SECONDS);
     }
 
-    // Starts the game
-    public void startGame() throws IOException {
-        loadQuestions("src/database/questions.json");
-        isGameRunning = true;
-        broadcastMessage("--------------------- Welcome to the Trivia! ---------------------");
-        broadcastMessage("Questions will be given shortly. Please answer with True or False.");
+    // Shows 'remaining' seconds, the first question comes right after 1
+    private void countdown(int remaining) {
+        game_lock.lock();
         try {
-            Thread.sleep(1000);
-            broadcastMessage("                               5                               ");
-            Thread.sleep(1000);
-            broadcastMessage("                               4                               ");
-            Thread.sleep(1000);
-            broadcastMessage("                               3                               ");
-            Thread.sleep(1000);
-            broadcastMessage("                               2                               ");
-            Thread.sleep(1000);
-            broadcastMessage("                               1                               ");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return;
+            if (state != State.COUNTDOWN) return;
+            broadcast(EncodedMessage.droppable("                               " + remaining + "                               "));
+            if (remaining == 1) {
+                startRound(0);
+                return;
+            }
+        } finally {
+            game_lock.unlock();
         }
-        loop();
+        engine.schedule(() -> countdown(remaining - 1), 1, TimeUnit.SECONDS);
     }
 
-    // Main game loop -> asks questions until rounds are over and then ends game
-    private void loop() throws IOException{
-        for (int round = 0; round < ROUNDS && isGameRunning; round++) {
-            String log = String.format("[Game %d] Started Round %d", gameId, round + 1);
-            Server.serverLog(log);
-            askQuestionToAllPlayers();
+    // Asks the question of 'round' to every player, answers come through onLine
+    // Holds game_lock
+    private void startRound(int round) {
+        this.round = round;
+        state = State.QUESTION;
+        Server.serverLog(String.format("[Game %d] Started Round %d", gameId, round + 1));
+
+        TriviaResult question = questions.get(round);
+        EncodedMessage[] ask = {EncodedMessage.of("Round Question: " + question.getQuestion()), PROVIDE_ANSWER};
+        pendingAnswers = 0;
+        for (int i = 0; i < playerList.size(); i++) {
+            answered[i] = disconnected[i];
+            if (!disconnected[i]) pendingAnswers++;
         }
-        endGame();
-    }
 
-    // Ends the game
-    private void endGame() throws IOException {
-        isGameRunning = false;
-        Client winner = determineWinner();
-        if (winner != null) {
-            broadcastMessage("Game Over! The winner is: " + winner.getUsername() + " with a score of " + winner.getScore());
-            updatePlayersRanks(winner);
-        } else {
-            broadcastMessage("Game Over! No winner.");
+        if (pendingAnswers == 0) {
+            closeRound(round);
+            return;
+        }
+        // Ready before sending, a player too slow to take the question is disconnected on the spot (see onLine)
+        roundTimeout = engine.schedule(() -> closeRound(round), answerWindow, TimeUnit.NANOSECONDS);
+        for (int i = 0; i < playerList.size(); i++) {
+            if (disconnected[i]) continue;
+            // Before sending, the answer may be handed over as soon as the question leaves
+            questionSentAt[i] = System.nanoTime();
+            send(playerList.get(i), ask);
         }
+    }
 
-        playerList_lock.lock();
+    // Handles a line of the player at 'index', on the thread reading his connection
+    // Only his first line during a round counts as his answer, the others are ignored
+    private void onLine(int index, String line) {
+        long received = System.nanoTime();
+        game_lock.lock();
         try {
-            server.reQueuePlayers(playerList);
+            if (state == State.ENDED || disconnected[index]) return;
+            Client player = playerList.get(index);
+
+            if (line == null) {
+                disconnected[index] = true;
+                Server.serverLog("Player " + player.getUsername() + " disconnected.");
+                userDatabase.userLoggedOut(player.getUsername());
+            } else if (state == State.QUESTION && !answered[index]) {
+                long latency = received - questionSentAt[index];
+                latencies[answerCount++] = latency;
+                String correctAnswer = questions.get(round).getCorrectAnswer();
+                if (line.equalsIgnoreCase(correctAnswer)) {
+                    int points = scoring.points(latency, answerWindow);
+                    player.addToScore(points);
+                    send(player, EncodedMessage.of(scoring.correctMessage(points, latency, player.getScore()) + '\n'));
+                } else {
+                    send(player, EncodedMessage.of("Incorrect! Correct answer was: " + correctAnswer + '\n'));
+                }
+            } else {
+                // Answered after his time was up, already counted as a timeout
+                if (state == State.RESULTS && !answered[index]) {
+                    answered[index] = true; // Counted once
+                    lateAnswers++;
+                }
+                return;
+            }
+
+            if (state == State.QUESTION && !answered[index]) {
+                answered[index] = true;
+                if (--pendingAnswers == 0) {
+                    // Everyone answered, no need to wait for the deadline
+                    roundTimeout.cancel();
+                    int answeredRound = round;
+                    engine.execute(() -> closeRound(answeredRound));
+                }
+            }
         } finally {
-            playerList_lock.unlock();
+            game_lock.unlock();
         }
-
-        playerThreadPool.shutdown();
     }
 
-    // Determine who is the winner of the game
-    private Client determineWinner() {
-        Client winner = null;
-        int highestScore = -1;
-        playerList_lock.lock();
+    // Ends 'round', by its deadline or once every player answered
+    // Players that didn't answer get a timeout, and the next question comes after RESULTS_DELAY
+    private void closeRound(int round) {
+        game_lock.lock();
         try {
-            for (Client player : playerList) {
-                if (player.getScore() > highestScore) {
-                    highestScore = player.getScore();
-                    winner = player;
+            if (state != State.QUESTION || this.round != round) return; // Already closed
+            state = State.RESULTS;
+
+            EncodedMessage timeUp = EncodedMessage.of("Time is up! Correct answer was: " + questions.get(round).getCorrectAnswer() + '\n');
+            for (int i = 0; i < playerList.size(); i++) {
+                if (!answered[i]) {
+                    timeouts[i]++;
+                    send(playerList.get(i), timeUp);
                 }
             }
         } finally {
-            playerList_lock.unlock();
+            game_lock.unlock();
         }
-        return winner;
+        engine.schedule(() -> nextRound(round + 1), RESULTS_DELAY, TimeUnit.MILLISECONDS);
     }
 
-    // Sends a message for both players
-    private void broadcastMessage(String message) {
-        playerList_lock.lock();
+    // Ends the game before it started, when there is no question to ask
+    // Ranks are left alone, and players are asked to requeue as after any game
+    private void cancel() {
+        game_lock.lock();
         try {
-            playerList.forEach(player -> {
-                try {
-                    Server.writeToClient(player.getSocket(), message);
-                } catch (IOException e) {
-                    System.out.println("Error communicating with Client: " + e.getMessage());
-                }
-            });
+            state = State.ENDED;
+            broadcast("No questions available, the game was cancelled.");
         } finally {
-            playerList_lock.unlock();
+            game_lock.unlock();
         }
+        Server.serverLog(String.format("[Game %d] Cancelled, no questions available", gameId));
+        server.reQueuePlayers(playerList);
     }
 
-    // Asks a question to both players
-    private void askQuestionToAllPlayers() {
-        TriviaResult question = triviaResponse.getRandomQuestion();
-        broadcastMessage("Round Question: " + question.getQuestion());
-
-        CountDownLatch latch = new CountDownLatch(2);
-        
-        playerList_lock.lock();
+    // Asks the next question, or ends the game after the last one
+    private void nextRound(int round) {
+        game_lock.lock();
         try {
-            playerList.forEach(player -> 
-                playerThreadPool.execute(() -> {
-                    try {
-                        handlePlayerAnswer(player, question.getCorrectAnswer(), latch);
-                    } catch (Exception e) {
-                        Server.serverLog("Server exception: " + e.getMessage());
-                    }
-                })
-            );
+            if (state != State.RESULTS || this.round != round - 1) return;
+            if (round < questions.size()) {
+                startRound(round);
+                return;
+            }
+            endGame();
         } finally {
-            playerList_lock.unlock();
+            game_lock.unlock();
         }
+        // Asked outside of the lock, players get their connection back (see endGame)
+        server.reQueuePlayers(playerList);
+    }
 
-        try {
-            latch.await();  // Wait for both players to answer
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    // Ends the game
+    // Holds game_lock
+    private void endGame() {
+        state = State.ENDED;
+        for (Client player : playerList) {
+            player.getConnection().setLineListener(null);
+        }
+
+        Client winner = determineWinner();
+        if (winner != null) {
+            broadcast("Game Over! The winner is: " + winner.getUsername() + " with a score of " + winner.getScore());
+            updatePlayersRanks();
+        } else {
+            broadcast("Game Over! No winner.");
         }
+        logStatistics();
     }
 
-    // Handles player's question answer
-    private void handlePlayerAnswer(Client player, String correctAnswer, CountDownLatch latch) {
-        try {
-            Server.writeToClient(player.getSocket(), Communication.PROVIDE_ANSWER);
-            String answer = Server.readFromClient(player.getSocket());
-            if (answer == null) {
-                Server.serverLog("Player " + player.getUsername() + " disconnected.");
-                userDatabase_lock.lock();
-                try {
-                    userDatabase.userLoggedOut(player.getUsername());
-                } finally { userDatabase_lock.unlock(); }
+    // Logs how long the game took, and how fast players answered
+    // Holds game_lock
+    private void logStatistics() {
+        int totalTimeouts = Arrays.stream(timeouts).sum();
+        long[] sorted = Arrays.copyOf(latencies, answerCount);
+        Arrays.sort(sorted);
+        String answers = sorted.length == 0 ? "no answers" : String.format("%d answers (latency p50 %d ms, max %d ms)", sorted.length,
+                TimeUnit.NANOSECONDS.toMillis(sorted[(sorted.length - 1) / 2]), TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length - 1]));
+        String log = String.format("[Game %d] Ended after %.1fs, %s, %d timeouts (%d late answers)", gameId,
+                (System.nanoTime() - startTime) / 1e9, answers, totalTimeouts, lateAnswers);
+        Server.serverLog(log);
+    }
 
+    // Determine who is the winner of the game
+    private Client determineWinner() {
+        Client winner = null;
+        int highestScore = -1;
+        for (Client player : playerList) {
+            if (player.getScore() > highestScore) {
+                highestScore = player.getScore();
+                winner = player;
             }
-            else if (answer.equalsIgnoreCase(correctAnswer)) {
-                player.incrementScore();
-                Server.writeToClient(player.getSocket(), "Correct! Your score: " + player.getScore() + '\n');
-            } else {
-                Server.writeToClient(player.getSocket(), "Incorrect! Correct answer was: " + correctAnswer + '\n');
-            }
-        } catch (IOException e) {
-            System.out.println("Error communicating with Client: " + e.getMessage());
-        } finally {
-            latch.countDown();
         }
+        return winner;
     }
 
-    // Updates the player's ranks 
-    private void updatePlayersRanks(Client winner) throws IOException {
-        userDatabase_lock.lock();
-        try {
-            userDatabase.incrementRank(winner.getUsername(), RANK_INCREMENT);
-            userDatabase.incrementRank(opponent(winner).getUsername(), -RANK_INCREMENT);
-        } finally {
-            userDatabase_lock.unlock();
+    // Sends 'messages' to every player still connected
+    // Each one is encoded once, and the same bytes are written to every player
+    private void broadcast(String... messages) {
+        EncodedMessage[] encoded = new EncodedMessage[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            encoded[i] = EncodedMessage.of(messages[i]);
         }
+        broadcast(encoded);
     }
 
-    // Given 'player' returns it's oponent
-    private Client opponent(Client player) {
-        playerList_lock.lock();
+    private void broadcast(EncodedMessage... messages) {
+        for (int i = 0; i < playerList.size(); i++) {
+            if (!disconnected[i]) send(playerList.get(i), messages);
+        }
+    }
+
+    // Sends 'messages' to a single player, in a single write, without waiting for him
+    // A slow player misses the non-essential ones, or is disconnected (see EncodedMessage.Overflow)
+    private void send(Client player, EncodedMessage... messages) {
         try {
-            if (playerList.get(0).equals(player)) return playerList.get(1);
-            return playerList.get(0);
-        } finally {
-            playerList_lock.unlock();
+            if (!player.getConnection().offer(messages)) {
+                Server.serverLog(String.format("[Game %d] Dropped messages for slow player %s", gameId, player.getUsername()));
+            }
+        } catch (IOException e) {
+            System.out.println("Error communicating with Client: " + e.getMessage());
+        }
+    }
+
+    // Updates the player's ranks by their place in the game
+    // The first place wins RANK_INCREMENT, the last one looses it and the others get a share in between
+    // Players with the same score share the average of their places
+    private void updatePlayersRanks() {
+        List<Client> standings = new ArrayList<>(playerList);
+        standings.sort(Comparator.comparingInt(Client::getScore).reversed());
+
+        int last = standings.size() - 1;
+        if (last == 0) return;
+
+        // Persisted in the background, the game doesn't wait for it
+        Map<String, Integer> deltas = new HashMap<>();
+        for (int first = 0; first <= last; ) {
+            int score = standings.get(first).getScore();
+            int end = first;
+            while (end < last && standings.get(end + 1).getScore() == score) end++;
+
+            double place = (first + end) / 2.0;
+            int increment = (int) Math.round(RANK_INCREMENT * (last - 2 * place) / last);
+            for (int i = first; i <= end; i++) {
+                Client player = standings.get(i);
+                if (increment != 0) {
+                    deltas.put(player.getUsername(), increment);
+                }
+                // Players are requeued with their new rank
+                player.setRank(player.getRank() + increment);
+            }
+            first = end + 1;
         }
+        userDatabase.submitRankChanges(deltas);
     }
-}
+}
\ No newline at end of file
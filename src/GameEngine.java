@@ -0,0 +1,41 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the events of every Game (countdown steps, questions, answer deadlines, results)
+// A game is a state machine moved forward by timed events and by its players' answers, so it never holds a thread:
+// - Timed events wait in the Server's TimingWheel (O(1) to schedule and cancel) and then run on a small fixed pool,
+//   one thread per core, so sending to players never delays the wheel
+// - Answers are handed to the game as they arrive (see Connection.setLineListener)
+// A game costs its state and at most one pending timeout, whatever the number of games
+public class GameEngine {
+    private final TimingWheel timers;
+    private final ExecutorService workers;
+
+    public GameEngine(TimingWheel timers) {
+        this.timers = timers;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "game-engine-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Runs 'event' as soon as possible
+    public void execute(Runnable event) {
+        workers.execute(() -> {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                System.out.println("[GAME] Event failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // Runs 'event' once 'delay' has passed, with the precision of the wheel's tick
+    public TimingWheel.Timeout schedule(Runnable event, long delay, TimeUnit unit) {
+        return timers.schedule(() -> execute(event), delay, unit);
+    }
+}
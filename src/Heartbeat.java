@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Detects queued Clients that lost their connection, with PING / PONG
+// - Every PING_INTERVAL, a PING is sent to every queued Client at once, without waiting for answers
+// - Each PING arms a deadline in the TimingWheel, while PONGs are recorded by the connections as they arrive
+//   (see Connection.getLastPongTime)
+// - Clients whose deadline expired without a PONG are evicted together every EVICTION_INTERVAL
+// Timed by the Server's TimingWheel, no thread is ever created or blocked per Client
+// Pings and evictions go over many Clients, so they run on 'workers' and never hold up the wheel's other deadlines
+// (e.g. the PONG deadlines themselves)
+public class Heartbeat {
+    // - Time Intervals (in ms) -
+    // Interval to send PING to all clients
+    private static final int PING_INTERVAL = 3000;
+    // Time a client has to answer with PONG
+    private static final int PONG_TIMEOUT = 2000;
+    // Interval to evict the clients that didn't answer
+    private static final int EVICTION_INTERVAL = 500;
+
+    // Encoded once for every Client, dropped if his outbound queue is full: the missing PONG evicts him anyway
+    private static final EncodedMessage PING = EncodedMessage.droppable(Communication.PING);
+
+    private final ClientQueue clientQueue;
+    private final Server server;
+    private final TimingWheel timers;
+    private final Executor workers;
+    // Clients that didn't answer in time, waiting for the next eviction
+    private final Queue<Client> timedOut = new ConcurrentLinkedQueue<>();
+
+    public Heartbeat(ClientQueue clientQueue, Server server, TimingWheel timers, Executor workers) {
+        this.clientQueue = clientQueue;
+        this.server = server;
+        this.timers = timers;
+        this.workers = workers;
+    }
+
+    public void start() {
+        timers.scheduleAtFixedRate(this::pingAllClients, PING_INTERVAL, TimeUnit.MILLISECONDS, workers);
+        timers.scheduleAtFixedRate(this::evictTimedOut, EVICTION_INTERVAL, TimeUnit.MILLISECONDS, workers);
+    }
+
+    // Pings every queued Client, arming a deadline for each PONG
+    private void pingAllClients() {
+        for (Client client : clientQueue.clients()) {
+            Connection connection = client.getConnection();
+            long pingTime = System.nanoTime();
+            try {
+                connection.offer(PING);
+            } catch (IOException e) {
+                timedOut.add(client);
+                continue;
+            }
+
+            timers.schedule(() -> {
+                if (connection.getLastPongTime() - pingTime < 0) {
+                    timedOut.add(client);
+                }
+            }, PONG_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Takes every Client that timed out out of the queue at once
+    // Clients that left the queue meanwhile (e.g. their game started) are left alone
+    private void evictTimedOut() {
+        List<Client> evicted = new ArrayList<>();
+        Client client;
+        while ((client = timedOut.poll()) != null) {
+            if (clientQueue.removeDisconnected(client)) {
+                evicted.add(client);
+            }
+        }
+        if (evicted.isEmpty()) return;
+
+        server.disconnectClients(evicted);
+        List<String> usernames = evicted.stream().map(Client::getUsername).toList();
+        String log = String.format("[HEARTBEAT] Evicted %d unresponsive clients %s (%d left in queue)", evicted.size(), usernames, clientQueue.size());
+        System.out.println(log);
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lines received from a client, waiting to be read (see Connection.readLine)
+// Filled by the thread reading the connection, consumed by the Server's threads
+// While a listener is set (e.g. during a game), lines are handed to it as they arrive instead
+public class Inbox {
+    // Marks the end of the stream
+    private static final Object END_OF_STREAM = new Object();
+
+    private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+    // Guards switching between the queue and the listener, never held while the listener runs
+    private final ReentrantLock listener_lock = new ReentrantLock();
+    private Connection.LineListener listener;
+    private boolean ended = false;
+
+    public void add(String line) {
+        Connection.LineListener current;
+        listener_lock.lock();
+        try {
+            current = listener;
+            if (current == null) items.add(line);
+        } finally {
+            listener_lock.unlock();
+        }
+        if (current != null) current.onLine(line);
+    }
+
+    // No more lines will come, readers get null from now on
+    public void close() {
+        Connection.LineListener current;
+        listener_lock.lock();
+        try {
+            ended = true;
+            current = listener;
+            items.add(END_OF_STREAM);
+        } finally {
+            listener_lock.unlock();
+        }
+        if (current != null) current.onLine(null);
+    }
+
+    // Hands every line to 'listener' from now on, or back to the queue if null
+    // Lines received before are dropped, and 'listener' gets null right away if the stream already ended
+    public void setListener(Connection.LineListener listener) {
+        boolean alreadyEnded;
+        listener_lock.lock();
+        try {
+            this.listener = listener;
+            clear();
+            alreadyEnded = ended;
+        } finally {
+            listener_lock.unlock();
+        }
+        if (listener != null && alreadyEnded) listener.onLine(null);
+    }
+
+    // Blocks until a line is received
+    // Returns null at the end of the stream
+    public String take() throws IOException {
+        try {
+            Object item = items.take();
+            if (item == END_OF_STREAM) {
+                items.add(END_OF_STREAM); // Keep further reads failing too
+                return null;
+            }
+            return (String) item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading from client");
+        }
+    }
+
+    // Drops the lines received but not read yet
+    public void clear() {
+        items.removeIf(item -> item != END_OF_STREAM);
+    }
+}
@@ -0,0 +1,167 @@
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// UserStore keeping every user in memory, checkpointed as a single JSON file (users.json)
+// Simple and fast, but the whole user set lives in the heap and every checkpoint rewrites the whole file
+public class JsonUserStore implements UserStore {
+    private final Path path;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Read by checkpoints while games change ranks, so concurrent
+    private final Map<String, User> users;
+    // Session token selector -> username
+    private final Map<String, String> bySelector = new ConcurrentHashMap<>();
+
+    public JsonUserStore(Path path) throws IOException {
+        this.path = path;
+        this.users = loadUsers();
+        users.forEach((username, user) -> {
+            String selector = SessionTokens.selectorOf(user.getSessionToken());
+            if (selector != null) bySelector.put(selector, username);
+        });
+    }
+
+    // Loads users from database file
+    private Map<String, User> loadUsers() throws IOException {
+        File file = path.toFile();
+        if (!file.exists()) {
+            throw new IOException("User database file not found.");
+        }
+        if (file.length() == 0) {
+            return new ConcurrentHashMap<>();
+        }
+        return objectMapper.readValue(file, new TypeReference<ConcurrentHashMap<String, User>>() {
+        });
+    }
+
+    @Override
+    public StoredUser get(String username) {
+        User user = users.get(username);
+        return user != null ? user.toStored() : null;
+    }
+
+    @Override
+    public boolean create(String username, String password, int rank) {
+        return users.putIfAbsent(username, new User(password, rank)) == null;
+    }
+
+    @Override
+    public int addToRank(String username, int addedRank) {
+        User user = users.get(username);
+        if (user == null) return -1;
+        return user.addToRank(addedRank);
+    }
+
+    @Override
+    public void setRank(String username, int rank) {
+        User user = users.get(username);
+        if (user != null) user.setRank(rank);
+    }
+
+    @Override
+    public void setSessionToken(String username, String sessionToken) {
+        User user = users.get(username);
+        if (user == null) return;
+
+        String previous = SessionTokens.selectorOf(user.getSessionToken());
+        if (previous != null) bySelector.remove(previous);
+        user.setSessionToken(sessionToken);
+        String selector = SessionTokens.selectorOf(sessionToken);
+        if (selector != null) bySelector.put(selector, username);
+    }
+
+    @Override
+    public String findByTokenSelector(String selector) {
+        return bySelector.get(selector);
+    }
+
+    // Sorts every matching user, fine for the sizes this store is meant for
+    @Override
+    public void scanByRank(int minRank, int maxRank, RankVisitor visitor) {
+        List<Map.Entry<String, StoredUser>> matching = new ArrayList<>();
+        users.forEach((username, user) -> {
+            StoredUser stored = user.toStored();
+            if (stored.rank() >= minRank && stored.rank() <= maxRank) {
+                matching.add(Map.entry(username, stored));
+            }
+        });
+        matching.sort(Comparator.comparingInt(entry -> entry.getValue().rank()));
+
+        for (Map.Entry<String, StoredUser> entry : matching) {
+            if (!visitor.visit(entry.getKey(), entry.getValue())) return;
+        }
+    }
+
+    // Saves a snapshot of the users to the database file
+    // Written to a temporary file first and renamed over the old one, so a crash never leaves half a snapshot
+    @Override
+    public void checkpoint() throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            objectMapper.writeValue(out, users);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A user as written in users.json
+    public static class User {
+        private String password;
+        // Changed while a checkpoint may be reading them
+        private final AtomicInteger rank = new AtomicInteger();
+        private volatile String sessionToken;
+
+        public User() {
+        }
+
+        public User(String password, int rank) {
+            this.password = password;
+            this.rank.set(rank);
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public int getRank() {
+            return rank.get();
+        }
+
+        public void setRank(Integer rank) {
+            this.rank.set(rank);
+        }
+
+        // Returns the new rank
+        int addToRank(int addedRank) {
+            return rank.addAndGet(addedRank);
+        }
+
+        public String getSessionToken() {
+            return sessionToken;
+        }
+
+        public void setSessionToken(String sessionToken) {
+            this.sessionToken = sessionToken;
+        }
+
+        StoredUser toStored() {
+            return new StoredUser(password, rank.get(), sessionToken);
+        }
+    }
+}
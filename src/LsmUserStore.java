@@ -0,0 +1,447 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// UserStore on disk as a log-structured merge tree, only recent changes are kept in the heap
+// - Changes go to a sorted in-memory table (the memtable)
+// - A checkpoint writes the memtable to a new SortedTable file (table-<n>.sst), newest tables win
+// - Once there are more than MAX_TABLES tables, they are merged into a single one (dropping deleted keys)
+// - A lookup checks the memtable, then the tables from the newest, each one with a single mapped index search
+// Keys (one table for everything):
+//   u/<username>               -> password, rank and session token of the user
+//   t/<token selector>         -> username
+//   r/<biased rank>/<username> -> (empty), the rank index, in rank order (see rankKey)
+// Memory is bounded by the memtable (emptied at every checkpoint) and the tables' sparse indexes
+public class LsmUserStore implements UserStore {
+    private static final String TABLE_PREFIX = "table-";
+    private static final String TABLE_SUFFIX = ".sst";
+    private static final int MAX_TABLES = 4;
+    // Users imported from users.json are written to a table every IMPORT_BATCH users
+    private static final int IMPORT_BATCH = 100_000;
+    private static final String USER_PREFIX = "u/";
+    private static final String TOKEN_PREFIX = "t/";
+    private static final String RANK_PREFIX = "r/";
+    private static final byte[] PRESENT = {1};
+    private static final int NO_TOKEN = 0xFFFF;
+
+    private final Path directory;
+
+    private volatile NavigableMap<String, byte[]> memtable = new ConcurrentSkipListMap<>();
+    // Memtable being written to a table by a checkpoint, still read until the table is in 'tables'
+    private volatile NavigableMap<String, byte[]> flushing;
+    // Newest first, replaced (never changed) when a table is added or the tables are merged
+    private volatile List<SortedTable> tables;
+    private long nextTable;
+
+    // Changes hold the read lock, a checkpoint swapping the memtable holds the write lock
+    private final ReentrantReadWriteLock memtable_lock = new ReentrantReadWriteLock();
+    // One checkpoint at a time
+    private final ReentrantLock checkpoint_lock = new ReentrantLock();
+    // A change reads the user and writes several keys, so changes to the same user are serialized
+    private static final int USER_LOCK_STRIPES = 64;
+    private final ReentrantLock[] user_locks = new ReentrantLock[USER_LOCK_STRIPES];
+
+    // Opens the store in 'directory'
+    // If it is empty, imports the users of 'importFrom' (users.json) first, if it exists
+    public static LsmUserStore open(Path directory, Path importFrom) throws IOException {
+        LsmUserStore store = new LsmUserStore(directory);
+        if (store.tables.isEmpty() && importFrom != null && Files.exists(importFrom)) {
+            store.importUsers(importFrom);
+        }
+        return store;
+    }
+
+    // Opens the tables already in 'directory'
+    private LsmUserStore(Path directory) throws IOException {
+        this.directory = directory;
+        for (int i = 0; i < USER_LOCK_STRIPES; i++) {
+            user_locks[i] = new ReentrantLock();
+        }
+        Files.createDirectories(directory);
+
+        List<SortedTable> opened = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TABLE_SUFFIX + ".tmp")) {
+                    Files.delete(path); // Left by a crash during a checkpoint
+                } else if (tableNumber(name) >= 0) {
+                    opened.add(SortedTable.open(path));
+                }
+            }
+        }
+        opened.sort((a, b) -> Long.compare(tableNumber(b.getPath()), tableNumber(a.getPath())));
+        this.tables = List.copyOf(opened);
+        this.nextTable = opened.isEmpty() ? 1 : tableNumber(opened.getFirst().getPath()) + 1;
+    }
+
+    @Override
+    public StoredUser get(String username) {
+        byte[] value = read(USER_PREFIX + username);
+        return value != null ? decodeUser(value) : null;
+    }
+
+    @Override
+    public boolean create(String username, String password, int rank) {
+        ReentrantLock user_lock = lockFor(username);
+        user_lock.lock();
+        try {
+            if (get(username) != null) return false;
+            write(username, new StoredUser(password, rank, null), null);
+            return true;
+        } finally {
+            user_lock.unlock();
+        }
+    }
+
+    @Override
+    public int addToRank(String username, int addedRank) {
+        ReentrantLock user_lock = lockFor(username);
+        user_lock.lock();
+        try {
+            StoredUser user = get(username);
+            if (user == null) return -1;
+            int rank = user.rank() + addedRank;
+            write(username, new StoredUser(user.password(), rank, user.sessionToken()), user);
+            return rank;
+        } finally {
+            user_lock.unlock();
+        }
+    }
+
+    @Override
+    public void setRank(String username, int rank) {
+        ReentrantLock user_lock = lockFor(username);
+        user_lock.lock();
+        try {
+            StoredUser user = get(username);
+            if (user != null) write(username, new StoredUser(user.password(), rank, user.sessionToken()), user);
+        } finally {
+            user_lock.unlock();
+        }
+    }
+
+    @Override
+    public void setSessionToken(String username, String sessionToken) {
+        ReentrantLock user_lock = lockFor(username);
+        user_lock.lock();
+        try {
+            StoredUser user = get(username);
+            if (user != null) write(username, new StoredUser(user.password(), user.rank(), sessionToken), user);
+        } finally {
+            user_lock.unlock();
+        }
+    }
+
+    @Override
+    public String findByTokenSelector(String selector) {
+        byte[] value = read(TOKEN_PREFIX + selector);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    // Walks the rank index, merging the memtable and the tables
+    @Override
+    public void scanByRank(int minRank, int maxRank, RankVisitor visitor) {
+        String from = RANK_PREFIX + rankKey(minRank) + "/";
+        String to = RANK_PREFIX + rankKey(maxRank) + "/\uffff";
+
+        Iterator<Map.Entry<String, byte[]>> entries = merged(from);
+        while (entries.hasNext()) {
+            Map.Entry<String, byte[]> entry = entries.next();
+            if (entry.getKey().compareTo(to) > 0) return;
+
+            String key = entry.getKey();
+            int rank = Integer.parseUnsignedInt(key, RANK_PREFIX.length(), RANK_PREFIX.length() + 8, 16) ^ Integer.MIN_VALUE;
+            String username = key.substring(from.length());
+            StoredUser user = get(username);
+            // Skips an index entry left behind by a rank change made during the scan, the user is visited at his new rank
+            if (user == null || user.rank() != rank) continue;
+            if (!visitor.visit(username, user)) return;
+        }
+    }
+
+    // Writes the memtable to a new table, merging the tables if there are too many
+    @Override
+    public void checkpoint() throws IOException {
+        checkpoint_lock.lock();
+        try {
+            memtable_lock.writeLock().lock();
+            try {
+                flushing = memtable;
+                memtable = new ConcurrentSkipListMap<>();
+            } finally {
+                memtable_lock.writeLock().unlock();
+            }
+
+            if (!flushing.isEmpty()) {
+                SortedTable table = SortedTable.write(tablePath(nextTable++), flushing.entrySet().iterator(), true);
+                List<SortedTable> updated = new ArrayList<>(tables.size() + 1);
+                updated.add(table);
+                updated.addAll(tables);
+                // Published before 'flushing' is cleared, so a lookup always finds the entries in one of them
+                tables = List.copyOf(updated);
+            }
+            flushing = null;
+
+            if (tables.size() > MAX_TABLES) mergeTables();
+        } finally {
+            checkpoint_lock.unlock();
+        }
+    }
+
+    // Merges every table into one, which replaces them all, so deleted keys are dropped
+    // Tables already opened by lookups stay readable, the mapping outlives the file
+    private void mergeTables() throws IOException {
+        long start = System.nanoTime();
+        List<SortedTable> merging = tables;
+        List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+        for (SortedTable table : merging) {
+            sources.add(table.iterator(""));
+        }
+        SortedTable merged = SortedTable.write(tablePath(nextTable++), new MergingIterator(sources), false);
+        tables = List.of(merged);
+        for (SortedTable table : merging) {
+            table.delete();
+        }
+        String log = String.format("[USERS] Merged %d tables into one of %d entries (%.1f ms)", merging.size(), merged.size(), (System.nanoTime() - start) / 1e6);
+        System.out.println(log);
+    }
+
+    // Imports users.json without reading it whole, flushing a table every IMPORT_BATCH users
+    private void importUsers(Path path) throws IOException {
+        long start = System.nanoTime();
+        int imported = 0;
+        try (JsonParser parser = new JsonFactory().createParser(path.toFile())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return; // Empty file
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String username = parser.currentName();
+                String password = null;
+                int rank = 0;
+                String sessionToken = null;
+
+                parser.nextToken(); // START_OBJECT
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "password":
+                            password = parser.getValueAsString();
+                            break;
+                        case "rank":
+                            rank = parser.getValueAsInt();
+                            break;
+                        case "sessionToken":
+                            sessionToken = parser.getValueAsString();
+                            break;
+                        default:
+                            parser.skipChildren();
+                    }
+                }
+
+                create(username, password, rank);
+                if (sessionToken != null) setSessionToken(username, sessionToken);
+                if (++imported % IMPORT_BATCH == 0) checkpoint();
+            }
+        }
+        checkpoint();
+        String log = String.format("[USERS] Imported %d users from %s (%.1f ms)", imported, path, (System.nanoTime() - start) / 1e6);
+        System.out.println(log);
+    }
+
+    // Writes 'user' and updates the token and rank indexes from 'previous' (null for a new user)
+    private void write(String username, StoredUser user, StoredUser previous) {
+        memtable_lock.readLock().lock();
+        try {
+            String previousSelector = previous != null ? SessionTokens.selectorOf(previous.sessionToken()) : null;
+            String selector = SessionTokens.selectorOf(user.sessionToken());
+            if (previousSelector != null && !previousSelector.equals(selector)) {
+                memtable.put(TOKEN_PREFIX + previousSelector, SortedTable.TOMBSTONE);
+            }
+            if (selector != null) {
+                memtable.put(TOKEN_PREFIX + selector, username.getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (previous != null && previous.rank() != user.rank()) {
+                memtable.put(RANK_PREFIX + rankKey(previous.rank()) + "/" + username, SortedTable.TOMBSTONE);
+            }
+            memtable.put(RANK_PREFIX + rankKey(user.rank()) + "/" + username, PRESENT);
+
+            memtable.put(USER_PREFIX + username, encodeUser(user));
+        } finally {
+            memtable_lock.readLock().unlock();
+        }
+    }
+
+    // Returns the value of 'key', or null if it doesn't exist (or was deleted)
+    private byte[] read(String key) {
+        byte[] value = memtable.get(key);
+        if (value == null) {
+            NavigableMap<String, byte[]> beingFlushed = flushing;
+            if (beingFlushed != null) value = beingFlushed.get(key);
+        }
+        if (value == null) {
+            for (SortedTable table : tables) {
+                value = table.get(key);
+                if (value != null) break;
+            }
+        }
+        return value == SortedTable.TOMBSTONE ? null : value;
+    }
+
+    // Live entries with a key >= 'from', in order, across the memtables and the tables
+    private Iterator<Map.Entry<String, byte[]>> merged(String from) {
+        // Newest source first, it wins when they have the same key
+        List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+        sources.add(memtable.tailMap(from, true).entrySet().iterator());
+        NavigableMap<String, byte[]> beingFlushed = flushing;
+        if (beingFlushed != null) sources.add(beingFlushed.tailMap(from, true).entrySet().iterator());
+        for (SortedTable table : tables) {
+            sources.add(table.iterator(from));
+        }
+
+        MergingIterator merging = new MergingIterator(sources);
+        return new Iterator<>() {
+            private Map.Entry<String, byte[]> next = advance();
+
+            private Map.Entry<String, byte[]> advance() {
+                while (merging.hasNext()) {
+                    Map.Entry<String, byte[]> entry = merging.next();
+                    if (entry.getValue() != SortedTable.TOMBSTONE) return entry;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                Map.Entry<String, byte[]> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    // K-way merge of sorted sources (newest first), one entry per key, the newest one, tombstones included
+    private static class MergingIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private record Head(Map.Entry<String, byte[]> entry, int source) {
+        }
+
+        private final List<Iterator<Map.Entry<String, byte[]>>> sources;
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> {
+            int comparison = a.entry().getKey().compareTo(b.entry().getKey());
+            return comparison != 0 ? comparison : Integer.compare(a.source(), b.source());
+        });
+
+        MergingIterator(List<Iterator<Map.Entry<String, byte[]>>> sources) {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                pull(i);
+            }
+        }
+
+        private void pull(int source) {
+            Iterator<Map.Entry<String, byte[]>> iterator = sources.get(source);
+            if (iterator.hasNext()) heads.add(new Head(iterator.next(), source));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            Head newest = heads.poll();
+            pull(newest.source());
+            // Older entries of the same key are shadowed
+            while (!heads.isEmpty() && heads.peek().entry().getKey().equals(newest.entry().getKey())) {
+                pull(heads.poll().source());
+            }
+            return newest.entry();
+        }
+    }
+
+    // Fixed width, so keys sort in rank order (negative ranks included)
+    private static String rankKey(int rank) {
+        return String.format("%08x", rank ^ Integer.MIN_VALUE);
+    }
+
+    // u16 password length, password, rank, u16 session token length (NO_TOKEN if none), session token
+    private static byte[] encodeUser(StoredUser user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] password = user.password() != null ? user.password().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            out.writeShort(password.length);
+            out.write(password);
+            out.writeInt(user.rank());
+            if (user.sessionToken() == null) {
+                out.writeShort(NO_TOKEN);
+            } else {
+                byte[] token = user.sessionToken().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(token.length);
+                out.write(token);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Never thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StoredUser decodeUser(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        byte[] password = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(password);
+        int rank = buffer.getInt();
+        int tokenLength = buffer.getShort() & 0xFFFF;
+        String sessionToken = null;
+        if (tokenLength != NO_TOKEN) {
+            byte[] token = new byte[tokenLength];
+            buffer.get(token);
+            sessionToken = new String(token, StandardCharsets.UTF_8);
+        }
+        return new StoredUser(new String(password, StandardCharsets.UTF_8), rank, sessionToken);
+    }
+
+    private Path tablePath(long number) {
+        return directory.resolve(TABLE_PREFIX + number + TABLE_SUFFIX);
+    }
+
+    private static long tableNumber(Path path) {
+        return tableNumber(path.getFileName().toString());
+    }
+
+    // Returns -1 if 'name' isn't a table
+    private static long tableNumber(String name) {
+        if (!name.startsWith(TABLE_PREFIX) || !name.endsWith(TABLE_SUFFIX)) return -1;
+        String number = name.substring(TABLE_PREFIX.length(), name.length() - TABLE_SUFFIX.length());
+        return number.matches("\\d+") ? Long.parseLong(number) : -1;
+    }
+
+    // Lock of the stripe 'username' belongs to
+    private ReentrantLock lockFor(String username) {
+        return user_locks[Math.floorMod(username.hashCode(), USER_LOCK_STRIPES)];
+    }
+}
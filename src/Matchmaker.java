@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ranked matchmaking with a tolerance per Client
+// A Client's tolerance (maximum rank difference he accepts) starts at BASE_TOLERANCE and grows by
+// TOLERANCE_STEP every TOLERANCE_STEP_INTERVAL he spends in the queue
+// A lobby only takes Clients that are next to each other in the rank index, and is acceptable
+// if its rank spread (highest - lowest rank) is within the tolerance of any of its players
+// - A Client that joins is put in a lobby right away if there is an acceptable one around him (onJoin)
+// - Every tick, only the Clients whose tolerance grew since the last one are evaluated again, around them
+// - A tick that follows a burst of Clients joining at once (logins, requeues) runs a batch pass instead,
+//   forming as many lobbies as possible out of the whole queue (matchAll)
+// A tick with no burst and no tolerance change does nothing, whatever the size of the queue
+public class Matchmaker {
+    private static final int BASE_TOLERANCE = 100;
+    private static final int TOLERANCE_STEP = 20;
+    private static final long TOLERANCE_STEP_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    // Joins within a tick, in lobbies, past which the tick runs a batch pass
+    private static final int BURST_LOBBIES = 4;
+    // Default interval (in ms) between ticks
+    public static final int DEFAULT_TICK_INTERVAL = 1000;
+
+    private final ClientQueue clientQueue;
+    private final Server server;
+    private final int playersPerGame;
+    private final int tickInterval;
+    // Next tolerance change of every waiting Client, polled as they expire
+    private final DelayQueue<ToleranceChange> toleranceChanges = new DelayQueue<>();
+    // Clients that joined and games formed since the last tick
+    private final AtomicInteger joinsSinceTick = new AtomicInteger();
+    private final AtomicInteger gamesSinceTick = new AtomicInteger();
+
+    // Last tick report, so idle ticks aren't logged over and over
+    private int lastGamesFormed = 0;
+    private int lastPlayersWaiting = 0;
+
+    // Moment (System.nanoTime) when 'client's tolerance grows
+    // Belongs to the stay in the queue that started at 'queueTime', a Client that was matched and came back
+    // has a new one
+    private record ToleranceChange(Client client, long queueTime, long time) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(time, ((ToleranceChange) other).time);
+        }
+    }
+
+    public Matchmaker(ClientQueue clientQueue, Server server, int playersPerGame, int tickInterval) {
+        this.clientQueue = clientQueue;
+        this.server = server;
+        this.playersPerGame = playersPerGame;
+        this.tickInterval = tickInterval;
+    }
+
+    // Ticks run on 'workers', a batch pass goes over the whole queue and must not hold up the wheel
+    public void start(TimingWheel timers, Executor workers) {
+        timers.scheduleAtFixedRate(this::tick, tickInterval, TimeUnit.MILLISECONDS, workers);
+    }
+
+    // Maximum rank difference 'client' accepts at 'now'
+    public static int tolerance(Client client, long now) {
+        long steps = (now - client.getQueueTime()) / TOLERANCE_STEP_INTERVAL;
+        return (int) Math.min(Integer.MAX_VALUE, BASE_TOLERANCE + steps * TOLERANCE_STEP);
+    }
+
+    // Rank spread of the 'playersPerGame' Clients (sorted by rank) starting at 'from'
+    // Returns -1 if none of them accepts it at 'now'
+    private long lobbySpread(List<Client> sorted, int from, long now) {
+        int to = from + playersPerGame - 1;
+        long spread = (long) sorted.get(to).getRank() - sorted.get(from).getRank();
+        for (int i = from; i <= to; i++) {
+            if (spread <= tolerance(sorted.get(i), now)) return spread;
+        }
+        return -1;
+    }
+
+    // Called when a Client joins the queue
+    public void onJoin(Client client) {
+        joinsSinceTick.incrementAndGet();
+        if (!matchAround(client)) {
+            long queueTime = client.getQueueTime();
+            toleranceChanges.add(new ToleranceChange(client, queueTime, queueTime + TOLERANCE_STEP_INTERVAL));
+        }
+    }
+
+    // Looks for the lobby around 'client' with the smallest rank spread and starts its game
+    // Returns false if 'client' is still waiting
+    private boolean matchAround(Client client) {
+        while (clientQueue.contains(client)) {
+            long now = System.nanoTime();
+            // Every window of 'playersPerGame' Clients in here includes him
+            List<Client> neighbourhood = clientQueue.rankNeighbourhood(client, playersPerGame - 1);
+
+            int best = -1;
+            long bestSpread = Long.MAX_VALUE;
+            for (int from = 0; from + playersPerGame <= neighbourhood.size(); from++) {
+                long spread = lobbySpread(neighbourhood, from, now);
+                if (spread >= 0 && spread < bestSpread) {
+                    best = from;
+                    bestSpread = spread;
+                }
+            }
+            if (best == -1) return false; // Waits for his tolerance to grow
+
+            // Retry if another pass took one of them first
+            if (startGame(neighbourhood.subList(best, best + playersPerGame), now)) return true;
+        }
+        return true;
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        boolean burst = joinsSinceTick.getAndSet(0) >= BURST_LOBBIES * playersPerGame;
+        if (burst) matchAll();
+
+        // Clients whose tolerance grew, those that are still waiting get their next change
+        ToleranceChange change;
+        while ((change = toleranceChanges.poll()) != null) {
+            Client client = change.client();
+            // Matched or left meanwhile
+            if (!clientQueue.contains(client) || client.getQueueTime() != change.queueTime()) continue;
+
+            // A batch pass already looked at everyone
+            if (burst || !matchAround(client)) {
+                toleranceChanges.add(new ToleranceChange(client, change.queueTime(), change.time() + TOLERANCE_STEP_INTERVAL));
+            }
+        }
+        int gamesFormed = gamesSinceTick.getAndSet(0);
+        int playersWaiting = clientQueue.size();
+
+        if (gamesFormed == 0 && lastGamesFormed == 0 && playersWaiting == lastPlayersWaiting) return;
+        lastGamesFormed = gamesFormed;
+        lastPlayersWaiting = playersWaiting;
+
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        String log = String.format("[MATCHMAKING] %d games formed since last tick, %d players waiting (tick %s, %.2f ms)",
+                gamesFormed, playersWaiting, burst ? "batch" : "incremental", elapsed);
+        System.out.println(log);
+    }
+
+    // Forms as many lobbies as possible out of the queued Clients in one pass, O(n * playersPerGame)
+    // Over the Clients sorted by rank, with k = playersPerGame:
+    //   best(i) = best of the first i Clients
+    //           = max(best(i - 1), best(i - k) + lobby(i - k .. i - 1)) if that lobby is acceptable
+    // comparing by number of games first and total rank spread second
+    // Returns the number of games formed
+    public int matchAll() {
+        // A Client seen twice while the queue renumbers its tickets is kept once (see ClientQueue.rebuild)
+        List<Client> sorted = new ArrayList<>(new LinkedHashSet<>(clientQueue.clientsByRank()));
+        int n = sorted.size();
+        if (n < playersPerGame) return 0;
+
+        long now = System.nanoTime();
+        int[] games = new int[n + 1];
+        long[] spread = new long[n + 1];
+        boolean[] closesLobby = new boolean[n + 1];
+
+        for (int i = playersPerGame; i <= n; i++) {
+            games[i] = games[i - 1];
+            spread[i] = spread[i - 1];
+
+            int from = i - playersPerGame;
+            long lobbySpread = lobbySpread(sorted, from, now);
+            if (lobbySpread < 0) continue;
+
+            int lobbyGames = games[from] + 1;
+            long totalSpread = spread[from] + lobbySpread;
+            if (lobbyGames > games[i] || (lobbyGames == games[i] && totalSpread < spread[i])) {
+                games[i] = lobbyGames;
+                spread[i] = totalSpread;
+                closesLobby[i] = true;
+            }
+        }
+
+        int gamesFormed = 0;
+        for (int i = n; i >= playersPerGame; ) {
+            if (closesLobby[i]) {
+                // Fails if one of them left or got matched on join meanwhile
+                if (startGame(sorted.subList(i - playersPerGame, i), now)) {
+                    gamesFormed++;
+                }
+                i -= playersPerGame;
+            } else {
+                i--;
+            }
+        }
+        return gamesFormed;
+    }
+
+    // Takes the lobby's Clients out of the queue and starts their game
+    // Returns false if one of them isn't queued anymore
+    private boolean startGame(List<Client> lobby, long now) {
+        List<Client> playerList = List.copyOf(lobby);
+        if (!clientQueue.removeAll(playerList)) return false;
+        gamesSinceTick.incrementAndGet();
+
+        long longestWait = 0;
+        for (Client player : playerList) {
+            longestWait = Math.max(longestWait, now - player.getQueueTime());
+        }
+        String log = String.format("[MATCHMAKING] Lobby of %d, ranks %d-%d, longest wait %ds", playerList.size(),
+                playerList.getFirst().getRank(), playerList.getLast().getRank(), TimeUnit.NANOSECONDS.toSeconds(longestWait));
+        System.out.println(log);
+        server.startNewGame(playerList);
+        return true;
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Non-blocking transport: a SocketChannel registered in the NioServer selector
+// The selector thread fills 'readBuffer' and splits it into lines, which are either
+// consumed by the login state machine (NioServer) or handed to 'readLine' callers through the inbox
+public class NioConnection implements Connection {
+
+    // States of the login state machine (see NioServer.handleLine)
+    enum State {
+        AWAITING_ACTION,
+        AUTH_USERNAME,
+        AUTH_PASSWORD,
+        REGISTER_USERNAME,
+        REGISTER_PASSWORD,
+        RECONNECT_TOKEN,
+        // Login finished (or being processed), lines go to the inbox
+        ATTACHED
+    }
+
+    private static final int INITIAL_READ_BUFFER = 256;
+    // Time the lines queued before a close have to be written
+    static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioServer server;
+    // Set by 'open', right after construction
+    private Client client;
+    private volatile State state = State.AWAITING_ACTION;
+    // Closed for senders, the selector closes the channel once the queue is written
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // When (System.nanoTime) the channel is closed even if lines are still queued
+    private volatile long closeDeadline;
+    private volatile boolean binaryProtocol = false;
+    private volatile long lastPongTime = System.nanoTime();
+
+    // Only touched by the selector thread
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    // Lines waiting to be written, often shared with other connections (see EncodedMessage)
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final ReentrantLock outbound_lock = new ReentrantLock();
+    // The socket was full, the selector writes the rest when it becomes writable
+    private boolean awaitingWritable = false;
+
+    // Lines received after login, consumed by readLine
+    private final Inbox inbox = new Inbox();
+
+    private NioConnection(SocketChannel channel, SelectionKey key, NioServer server) {
+        this.channel = channel;
+        this.key = key;
+        this.server = server;
+    }
+
+    // Wraps a channel just registered in the selector ('key') and attaches itself to the key
+    static NioConnection open(SocketChannel channel, SelectionKey key, NioServer server) {
+        NioConnection connection = new NioConnection(channel, key, server);
+        connection.client = new Client(connection);
+        key.attach(connection);
+        return connection;
+    }
+
+    public Client getClient() {
+        return this.client;
+    }
+
+    State getState() {
+        return this.state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public boolean send(EncodedMessage message) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Connection closed");
+        }
+
+        OutboundQueue.Result result;
+        long waiting;
+        outbound_lock.lock();
+        try {
+            result = outbound.add(message, binaryProtocol);
+            waiting = outbound.size();
+        } finally {
+            outbound_lock.unlock();
+        }
+
+        if (result == OutboundQueue.Result.OVERFLOWED) {
+            abort();
+            Server.serverLog(String.format("[CONNECTION] Closed a slow client, %d bytes were waiting", waiting));
+            throw new IOException("Client too slow, connection closed");
+        }
+        return result == OutboundQueue.Result.QUEUED;
+    }
+
+    // Writes the queued lines straight to the channel (a single gathering write) unless the socket is full,
+    // then the selector finishes the job
+    @Override
+    public void flush() throws IOException {
+        outbound_lock.lock();
+        try {
+            if (awaitingWritable || outbound.isEmpty()) return;
+            if (outbound.write(channel) == 0) return;
+
+            awaitingWritable = true;
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            key.selector().wakeup();
+        } finally {
+            outbound_lock.unlock();
+        }
+    }
+
+    // Called by the selector when the channel is writable
+    // Closes the channel once the last line queued before a close is written
+    void flushWrites() throws IOException {
+        outbound_lock.lock();
+        try {
+            if (outbound.write(channel) > 0) return; // Socket buffer is full, wait for the next OP_WRITE
+            awaitingWritable = false;
+            if (!closed.get()) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+        } finally {
+            outbound_lock.unlock();
+        }
+        closeChannel();
+    }
+
+    @Override
+    public void enableBinaryProtocol() {
+        this.binaryProtocol = true;
+    }
+
+    // Called by the selector when the channel is readable
+    // Dispatches every complete line (or frame) to the NioServer
+    // Returns false when the client closed the connection
+    boolean readLines() throws IOException {
+        if (channel.read(readBuffer) == -1) return false;
+
+        readBuffer.flip();
+        // The protocol may switch to binary in the middle of the buffer
+        while (binaryProtocol ? readFrame() : readTextLine()) {
+        }
+        readBuffer.compact();
+
+        // A line (or frame) that doesn't fit in the buffer
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= WireProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Line exceeds " + WireProtocol.MAX_FRAME_LENGTH + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+        return true;
+    }
+
+    // Dispatches the next '\n' terminated line, returns false if it isn't complete yet
+    private boolean readTextLine() throws IOException {
+        int start = readBuffer.position();
+        for (int i = start; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) != '\n') continue;
+
+            int end = i;
+            if (end > start && readBuffer.get(end - 1) == '\r') end--;
+            String line = new String(readBuffer.array(), start, end - start, StandardCharsets.UTF_8);
+            readBuffer.position(i + 1);
+            dispatch(line);
+            return true;
+        }
+        return false;
+    }
+
+    // Dispatches the next frame, returns false if it isn't complete yet
+    private boolean readFrame() throws IOException {
+        int position = readBuffer.position();
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= readBuffer.limit()) return false;
+            if (shift > 28) {
+                throw new IOException("Malformed frame length");
+            }
+            byte b = readBuffer.get(position++);
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+
+        if (length < 1 || length > WireProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (readBuffer.limit() - position < length) return false;
+
+        int opcode = readBuffer.get(position) & 0xFF;
+        String line = WireProtocol.toLine(opcode, readBuffer.array(), position + 1, length - 1);
+        readBuffer.position(position + length);
+        dispatch(line);
+        return true;
+    }
+
+    // PONGs only update the heartbeat, every other line goes to the NioServer
+    private void dispatch(String line) throws IOException {
+        if (line.equals(Communication.PONG)) {
+            lastPongTime = System.nanoTime();
+            return;
+        }
+        server.handleLine(this, line);
+    }
+
+    // Hands a line to 'readLine' callers
+    void deliver(String line) {
+        inbox.add(line);
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return inbox.take();
+    }
+
+    @Override
+    public void discardReceived() {
+        inbox.clear();
+    }
+
+    @Override
+    public void setLineListener(LineListener listener) {
+        inbox.setListener(listener);
+    }
+
+    @Override
+    public long getLastPongTime() {
+        return lastPongTime;
+    }
+
+    // Lines already queued are still written by the selector, for at most CLOSE_TIMEOUT (e.g. AUTH_FAIL)
+    // Nothing is read meanwhile
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) return;
+        inbox.close();
+
+        outbound_lock.lock();
+        try {
+            if (!outbound.isEmpty()) {
+                closeDeadline = System.nanoTime() + CLOSE_TIMEOUT;
+                awaitingWritable = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+                server.closeWhenWritten(this);
+                return;
+            }
+        } finally {
+            outbound_lock.unlock();
+        }
+        closeChannel();
+    }
+
+    // Closes right away, dropping the queued lines
+    void abort() {
+        if (closed.compareAndSet(false, true)) {
+            inbox.close();
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        key.cancel();
+        outbound_lock.lock();
+        try {
+            outbound.clear();
+        } finally {
+            outbound_lock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    long getCloseDeadline() {
+        return this.closeDeadline;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
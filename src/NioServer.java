@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Non-blocking front end for the Server
+// A single selector thread accepts, reads and writes for every connection and drives the
+// login protocol as a per-connection state machine, so an idle Client costs two buffers
+// instead of a blocked thread
+// Steps that may block (password hashing, queueing, games) run on virtual threads
+public class NioServer {
+    private final Server server;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workerThreadPool;
+    // Connections writing their last lines before closing, by close deadline (see NioConnection.close)
+    private final Queue<NioConnection> closingConnections = new ConcurrentLinkedQueue<>();
+
+    public NioServer(Server server, int port) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port), Server.ACCEPT_BACKLOG);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workerThreadPool = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    // Selector loop
+    public void run() throws IOException {
+        while (true) {
+            selector.select(untilNextCloseDeadline());
+
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+
+                if (key.isValid() && key.isAcceptable()) {
+                    acceptConnections();
+                    continue;
+                }
+
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable() && !connection.readLines()) {
+                        connection.close();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flushWrites();
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    // Broken channel, nothing left to write to
+                    connection.abort();
+                }
+            }
+            abortOverdueCloses();
+        }
+    }
+
+    // Called by a closing connection that still has lines to write
+    void closeWhenWritten(NioConnection connection) {
+        closingConnections.add(connection);
+        // The selector may be waiting without a timeout
+        selector.wakeup();
+    }
+
+    // Time (in ms) the selector may wait before a close deadline passes, 0 to wait for the next event
+    private long untilNextCloseDeadline() {
+        NioConnection next = closingConnections.peek();
+        if (next == null) return 0;
+        long remaining = next.getCloseDeadline() - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+    }
+
+    // Closes the connections whose client didn't read their last lines in time
+    // Those that finished writing are already closed, aborting them again does nothing
+    private void abortOverdueCloses() {
+        long now = System.nanoTime();
+        NioConnection next;
+        while ((next = closingConnections.peek()) != null && next.getCloseDeadline() - now <= 0) {
+            closingConnections.poll().abort();
+        }
+    }
+
+    // Accepts every pending connection and greets it
+    private void acceptConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            NioConnection connection = NioConnection.open(channel, key, this);
+            try {
+                connection.writeLine(Communication.WELCOME);
+            } catch (IOException e) {
+                closeConnection(connection);
+            }
+        }
+    }
+
+    // State machine to handle lines received from a client
+    // Mirrors Server.handleClient, one received line per transition
+    void handleLine(NioConnection connection, String line) throws IOException {
+        Client client = connection.getClient();
+
+        switch (connection.getState()) {
+            case AWAITING_ACTION:
+                handleAction(connection, line);
+                break;
+
+            case AUTH_USERNAME:
+                client.setUsername(line);
+                connection.setState(NioConnection.State.AUTH_PASSWORD);
+                connection.writeLine(Communication.AUTH_PASSWORD);
+                break;
+
+            case AUTH_PASSWORD:
+                connection.setState(NioConnection.State.ATTACHED);
+                runBlocking(connection, () ->
+                    server.finishAuthentication(client, server.verifyCredentials(client, client.getUsername(), line)));
+                break;
+
+            case REGISTER_USERNAME:
+                client.setUsername(line);
+                connection.setState(NioConnection.State.REGISTER_PASSWORD);
+                connection.writeLine(Communication.REGISTER_PASSWORD);
+                break;
+
+            case REGISTER_PASSWORD:
+                connection.setState(NioConnection.State.ATTACHED);
+                runBlocking(connection, () -> {
+                    if (server.finishRegistration(client, server.createAccount(client, client.getUsername(), line))) {
+                        // Back to the start, the Client may now log in
+                        connection.setState(NioConnection.State.AWAITING_ACTION);
+                        connection.writeLine(Communication.WELCOME);
+                    }
+                });
+                break;
+
+            case RECONNECT_TOKEN:
+                connection.setState(NioConnection.State.ATTACHED);
+                runBlocking(connection, () -> server.finishReconnection(client, server.verifyToken(client, line)));
+                break;
+
+            case ATTACHED:
+                connection.deliver(line);
+                break;
+        }
+    }
+
+    // Handles the Client's answer to WELCOME
+    private void handleAction(NioConnection connection, String line) throws IOException {
+        String[] actionParts = line.split(" ");
+        String command = actionParts[0];
+        if (WireProtocol.requestsBinary(line)) {
+            connection.enableBinaryProtocol();
+        }
+
+        switch (command) {
+            case Communication.CLIENT_AUTH:
+                System.out.println("[AUTH] A Client is authenticating");
+                connection.setState(NioConnection.State.AUTH_USERNAME);
+                connection.writeLine(Communication.AUTH_USERNAME);
+                break;
+
+            case Communication.CLIENT_RECONNECT:
+                System.out.println("[RECONNECT] A Client is reconnecting with token");
+                connection.setState(NioConnection.State.RECONNECT_TOKEN);
+                connection.writeLine(Communication.REQUEST_TOKEN);
+                break;
+
+            case Communication.CLIENT_REGISTER:
+                System.out.println("[AUTH] A Client is creating a new account");
+                connection.setState(NioConnection.State.REGISTER_USERNAME);
+                connection.writeLine(Communication.REGISTER_USERNAME);
+                break;
+
+            default:
+                connection.close();
+                break;
+        }
+    }
+
+    private interface BlockingStep {
+        void run() throws IOException;
+    }
+
+    // Runs a step of the protocol that may block outside the selector thread
+    private void runBlocking(NioConnection connection, BlockingStep step) {
+        workerThreadPool.execute(() -> {
+            try {
+                step.run();
+            } catch (IOException e) {
+                Server.serverLog("[NIO] Error communicating with Client: " + e.getMessage());
+                closeConnection(connection);
+            }
+        });
+    }
+
+    private void closeConnection(NioConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            Server.serverLog("[NIO] Failed to close connection: " + e.getMessage());
+        }
+    }
+}
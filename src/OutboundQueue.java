@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Lines waiting to be written to a single client, at most MAX_BYTES
+// Senders only queue lines, the connection's writer drains them: the NioServer selector, or a virtual thread
+// per SocketConnection. A stalled client never blocks the threads sending to him (e.g. a Game or a Heartbeat)
+// When a line doesn't fit, its policy decides (see EncodedMessage.Overflow):
+// - DISCONNECT -> the client is too slow, the connection closes
+// - DROP       -> the line is dropped
+// - COALESCE   -> the line is dropped, unless it replaces one with the same key. Replacing happens even when
+//                 there is room, the client would only read a stale line first
+// Not thread safe, guarded by its connection
+public class OutboundQueue {
+    static final int MAX_BYTES = 64 * 1024;
+
+    enum Result {
+        QUEUED,
+        DROPPED,
+        // An essential line didn't fit, the connection must be closed
+        OVERFLOWED
+    }
+
+    // A line and the bytes of it not written yet
+    static final class Entry {
+        private EncodedMessage message;
+        private boolean binaryProtocol;
+        private ByteBuffer buffer;
+
+        private Entry(EncodedMessage message, boolean binaryProtocol, ByteBuffer buffer) {
+            this.message = message;
+            this.binaryProtocol = binaryProtocol;
+            this.buffer = buffer;
+        }
+
+        // Blocking writes, straight from the shared bytes
+        void writeTo(OutputStream output) throws IOException {
+            message.writeTo(output, binaryProtocol);
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long bytes = 0;
+
+    Result add(EncodedMessage message, boolean binaryProtocol) throws IOException {
+        ByteBuffer buffer = message.buffer(binaryProtocol);
+        EncodedMessage.Overflow overflow = message.getOverflow();
+
+        if (overflow == EncodedMessage.Overflow.COALESCE) {
+            for (Entry entry : entries) {
+                // A line partly written can't be replaced anymore
+                if (entry.buffer.position() > 0 || !message.getKey().equals(entry.message.getKey())) continue;
+                bytes += buffer.remaining() - entry.buffer.remaining();
+                entry.message = message;
+                entry.binaryProtocol = binaryProtocol;
+                entry.buffer = buffer;
+                return Result.QUEUED;
+            }
+        }
+
+        if (bytes + buffer.remaining() > MAX_BYTES) {
+            return overflow == EncodedMessage.Overflow.DISCONNECT ? Result.OVERFLOWED : Result.DROPPED;
+        }
+        entries.add(new Entry(message, binaryProtocol, buffer));
+        bytes += buffer.remaining();
+        return Result.QUEUED;
+    }
+
+    // Writes as much as 'channel' takes in a single gathering write
+    // Returns the bytes still waiting
+    long write(GatheringByteChannel channel) throws IOException {
+        if (entries.isEmpty()) return 0;
+
+        ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+        int i = 0;
+        for (Entry entry : entries) {
+            buffers[i++] = entry.buffer;
+        }
+        bytes -= channel.write(buffers);
+        while (!entries.isEmpty() && !entries.peek().buffer.hasRemaining()) {
+            entries.poll();
+        }
+        return bytes;
+    }
+
+    // Takes every line, for a writer that blocks without holding the connection's lock
+    List<Entry> takeAll() {
+        List<Entry> taken = new ArrayList<>(entries);
+        entries.clear();
+        bytes = 0;
+        return taken;
+    }
+
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    long size() {
+        return bytes;
+    }
+}
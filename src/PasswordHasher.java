@@ -0,0 +1,88 @@
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the password hashes (BCrypt, ~100 ms of CPU each) of logins and registrations
+// on a fixed pool of platform threads, one per core, away from any shared lock
+// Admission control, so a login storm doesn't pile up work nobody waits for anymore:
+// - At most MAX_PENDING hashes wait for a thread, further ones are refused right away
+// - A hash that waited more than MAX_QUEUE_WAIT is dropped when its turn comes (its Client has likely given up)
+// Refused and dropped hashes throw BusyException, the Client is told to try again later
+public class PasswordHasher {
+    private static final int MAX_PENDING = 1024;
+    private static final long MAX_QUEUE_WAIT = TimeUnit.SECONDS.toNanos(10);
+
+    // The hash was refused or dropped, not computed
+    public static class BusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = task -> {
+            Thread thread = new Thread(task, "password-hasher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Checks 'password' against its stored hash, blocking until done
+    public boolean matches(String password, String encodedPassword) throws BusyException, InterruptedIOException {
+        return run(() -> encoder.matches(password, encodedPassword));
+    }
+
+    // Hashes a new password, blocking until done
+    public String encode(String password) throws BusyException, InterruptedIOException {
+        return run(() -> encoder.encode(password));
+    }
+
+    // Hashes waiting for a thread
+    public int pending() {
+        return executor.getQueue().size();
+    }
+
+    private <T> T run(Callable<T> hash) throws BusyException, InterruptedIOException {
+        long submitted = System.nanoTime();
+        Future<T> result;
+        try {
+            result = executor.submit(() -> {
+                if (System.nanoTime() - submitted > MAX_QUEUE_WAIT) {
+                    throw new BusyException("Waited too long for a password hashing thread");
+                }
+                return hash.call();
+            });
+        } catch (RejectedExecutionException e) {
+            throw new BusyException("Too many pending password checks");
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing a password");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BusyException busy) throw busy;
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+}
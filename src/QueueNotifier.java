@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Keeps queued Clients informed of their queue position, without a write per Client per tick
+// - Only changes are sent: the last position reported to each Client is kept (see Client.getReportedPosition)
+// - Coalesced: positions are checked once per WINDOW, however many Clients left meanwhile, and a position
+//   replaces an older one still waiting in the Client's outbound queue (see EncodedMessage.Overflow)
+// - Nothing is checked while the queue's epoch doesn't change (see ClientQueue.epoch): joining at the end moves nobody
+// - Large queues are checked in tiers: positions 1 to TIER_SIZE every window, the next 2 * TIER_SIZE over 2 windows,
+//   the next 4 * TIER_SIZE over 4 windows... So a window checks at most TIER_SIZE Clients per tier, O(log n) tiers,
+//   and the further back a Client is, the later he hears of a move, which is also the smallest for him
+// Runs on the Server's TimingWheel
+public class QueueNotifier {
+    // Interval (in s) between checks
+    private static final int WINDOW = 1;
+    // Clients checked per tier in a window
+    private static final int TIER_SIZE = 128;
+    // Enough tiers for any int position
+    private static final int MAX_TIERS = 25;
+
+    private final ClientQueue clientQueue;
+    private final TimingWheel timers;
+
+    // Per tier, only touched by the timer thread:
+    // offset of the next Client to check, 0 when no check is in progress
+    private final long[] cursors = new long[MAX_TIERS];
+    // queue epoch when the last check of the tier started
+    private final long[] checkedEpochs = new long[MAX_TIERS];
+
+    public QueueNotifier(ClientQueue clientQueue, TimingWheel timers) {
+        this.clientQueue = clientQueue;
+        this.timers = timers;
+    }
+
+    public void start() {
+        timers.scheduleAtFixedRate(this::notifyMovedClients, WINDOW, TimeUnit.SECONDS);
+    }
+
+    // Tells a Client that just joined the queue his position
+    public void joined(Client client, int position) throws IOException {
+        client.setReportedPosition(position);
+        send(client, position);
+    }
+
+    // Checks the next slice of every tier that may have moved since its last check
+    private void notifyMovedClients() {
+        long epoch = clientQueue.epoch();
+        int size = clientQueue.size();
+
+        long tierStart = 1;
+        for (int tier = 0; tier < MAX_TIERS && tierStart <= size; tier++) {
+            long tierLength = (long) TIER_SIZE << tier;
+            if (cursors[tier] == 0) {
+                if (checkedEpochs[tier] == epoch) {
+                    tierStart += tierLength;
+                    continue;
+                }
+                checkedEpochs[tier] = epoch;
+            }
+
+            int from = (int) Math.min(Integer.MAX_VALUE, tierStart + cursors[tier]);
+            List<Client> clients = clientQueue.range(from, TIER_SIZE);
+            for (int i = 0; i < clients.size(); i++) {
+                notifyIfMoved(clients.get(i), from + i);
+            }
+
+            cursors[tier] += TIER_SIZE;
+            if (cursors[tier] >= tierLength) cursors[tier] = 0;
+            tierStart += tierLength;
+        }
+    }
+
+    private void notifyIfMoved(Client client, int position) {
+        if (client.getReportedPosition() == position) return;
+        // Left the queue since the range was taken (e.g. his game started)
+        if (!clientQueue.contains(client)) return;
+
+        client.setReportedPosition(position);
+        try {
+            send(client, position);
+        } catch (IOException e) {
+            // Lost connection, the Heartbeat evicts him
+        }
+    }
+
+    private void send(Client client, int position) throws IOException {
+        String message = Communication.QUEUE_POSITION + " " + position;
+        client.getConnection().offer(EncodedMessage.coalescing(Communication.QUEUE_POSITION, message));
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Applies the rank changes of finished games in the background, so games never wait on the disk
+// Games submit their deltas and move on. A single thread takes every submission waiting, sums the deltas
+// of each user, applies them and logs the new ranks with a single durable write (see UserLog.appendAll)
+// While a batch is being written, the next submissions pile up and form the next batch
+// Being the only thread that changes ranks, it logs them in the same order it applies them
+public class RankUpdater {
+    private final UserStore store;
+    private final UserLog userLog;
+    private final BlockingQueue<Map<String, Integer>> submitted = new LinkedBlockingQueue<>();
+
+    RankUpdater(UserStore store, UserLog userLog) {
+        this.store = store;
+        this.userLog = userLog;
+    }
+
+    void start() {
+        Thread writer = new Thread(this::run, "rank-updater");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues the rank changes (username -> delta) of a finished game
+    public void submit(Map<String, Integer> deltas) {
+        if (!deltas.isEmpty()) submitted.add(deltas);
+    }
+
+    private void run() {
+        List<Map<String, Integer>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(submitted.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            submitted.drainTo(batch);
+            long start = System.nanoTime();
+
+            Map<String, Integer> deltas = new HashMap<>();
+            for (Map<String, Integer> game : batch) {
+                game.forEach((username, delta) -> deltas.merge(username, delta, Integer::sum));
+            }
+
+            List<UserLog.Entry> entries = new ArrayList<>(deltas.size());
+            deltas.forEach((username, delta) -> {
+                int rank = store.addToRank(username, delta);
+                if (rank != -1) entries.add(UserLog.Entry.rank(username, rank));
+            });
+
+            try {
+                userLog.appendAll(entries).join();
+                String log = String.format("[USERS] Persisted %d rank updates from %d games (%.2f ms)", entries.size(), batch.size(), (System.nanoTime() - start) / 1e6);
+                System.out.println(log);
+            } catch (CompletionException e) {
+                // The ranks stay applied in memory, and are saved with the next snapshot
+                System.out.println("[USERS] Failed to persist " + entries.size() + " rank updates: " + e.getCause().getMessage());
+            }
+            batch.clear();
+        }
+    }
+}
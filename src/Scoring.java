@@ -0,0 +1,43 @@
+import java.util.concurrent.TimeUnit;
+
+// How correct answers are scored (see Game), chosen at startup
+public enum Scoring {
+    // One point per correct answer, however long it took
+    CLASSIC,
+    // Faster answers are worth more: SPEED_MAX_POINTS for an instant answer,
+    // down to half of it for an answer at the very end of the window
+    SPEED;
+
+    public static final int SPEED_MAX_POINTS = 1000;
+
+    // Points of a correct answer given 'latency' after its question, out of an answer window of 'window' (both in ns)
+    public int points(long latency, long window) {
+        switch (this) {
+            case SPEED:
+                double elapsed = Math.min(1.0, (double) Math.max(0, latency) / window);
+                return (int) Math.round(SPEED_MAX_POINTS * (1 - elapsed / 2));
+            case CLASSIC:
+            default:
+                return 1;
+        }
+    }
+
+    // Result line sent to a player who answered correctly
+    public String correctMessage(int points, long latency, int score) {
+        switch (this) {
+            case SPEED:
+                return String.format("Correct! +%d points in %.1fs. Your score: %d", points, latency / (double) TimeUnit.SECONDS.toNanos(1), score);
+            case CLASSIC:
+            default:
+                return "Correct! Your score: " + score;
+        }
+    }
+
+    // Parses "classic" or "speed", returns null if it is neither
+    public static Scoring parse(String name) {
+        for (Scoring scoring : values()) {
+            if (scoring.name().equalsIgnoreCase(name)) return scoring;
+        }
+        return null;
+    }
+}
@@ -1,25 +1,32 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
+import game_logic.QuestionBank;
+
 public class Server {
     private final ExecutorService gameThreadPool;
+    // Only drives 'timers'
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Every timeout and periodic task (see TimingWheel), with a tick of TIMER_TICK ms
+    private static final int TIMER_TICK = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+    private final TimingWheel timers = new TimingWheel(TIMER_TICK, TimeUnit.MILLISECONDS, TIMER_WHEEL_SIZE);
+    // Runs every game, timed by 'timers'
+    private final GameEngine gameEngine = new GameEngine(timers);
 
     // General Info
-    private final int PLAYERS_PER_GAME = 2;
+    // Players in each game (lobby size), chosen at startup
+    private final int playersPerGame;
+    static final int DEFAULT_PLAYERS_PER_GAME = 2;
 
     // Client Queue
-    private final List<Client> clientQueue;
-    private final ReentrantLock clientQueue_lock = new ReentrantLock();
+    private final ClientQueue clientQueue;
 
     // Game ID
     private int gameId;
@@ -27,28 +34,54 @@ public class Server {
 
     // Database
     private final UserDatabase userDatabase;
-    private final ReentrantLock userDatabase_lock = new ReentrantLock();
+    // Password hashes run there, outside of any lock
+    private final PasswordHasher passwordHasher = new PasswordHasher();
+    private static final String SERVER_BUSY_MESSAGE = "Server is busy, please try again later";
+
+    // Questions, loaded once and shared by every Game
+    // JSON or compiled (see game_logic.QuestionCompiler)
+    private static final String DEFAULT_QUESTIONS_PATH = "src/database/questions.json";
+    // Interval (in seconds) to check if the questions file changed
+    private static final int QUESTIONS_RELOAD_INTERVAL = 5;
+    private final QuestionBank questionBank;
+
+    // Time (in seconds) players have to answer each question, and how answers are scored, chosen at startup
+    static final int DEFAULT_ANSWER_WINDOW = 20;
+    private final int answerWindow;
+    private final Scoring scoring;
 
     // Game Mode : 0 -> Simple , 1 -> Ranked
     private final int gameMode;
     private static final int SIMPLE = 0;
     private static final int RANKED = 1;
 
+    // Transport, chosen at startup
+    private static final String BLOCKING_TRANSPORT = "blocking";
+    private static final String NIO_TRANSPORT = "nio";
+    // Pending connections the OS keeps for us while we are busy accepting
+    static final int ACCEPT_BACKLOG = 1024;
+
+    // Detects lost connections of queued Clients
+    private final Heartbeat heartbeat;
+    // Sends queue positions as they change
+    private final QueueNotifier queueNotifier;
+
     // - Ranked Mode -
-    // Maximum difference between player's Ranks
-    private int MATCHMAKING_MAX_DIFF = 100;
-    private final int MATCHMAKING_RELAX = 100;
-
-    // {username : position}
-    // Stores the client's queue position when he disconnects
-    // This shares the lock with the userDatabase
-    private final Map<String, Integer> reconnectPosition;
-
-    public Server(int gameMode) throws IOException{
-        this.clientQueue = new ArrayList<>();
-        this.userDatabase = new UserDatabase();
-        this.gameMode = gameMode;
+    private final Matchmaker matchmaker;
+
+    public Server(int gameMode, int playersPerGame, int matchmakingTick, String questionsPath, String userStorage,
+                  int answerWindow, Scoring scoring) throws IOException{
+        this.clientQueue = new ClientQueue();
         this.gameThreadPool = Executors.newVirtualThreadPerTaskExecutor();
+        this.playersPerGame = playersPerGame;
+        this.matchmaker = new Matchmaker(clientQueue, this, playersPerGame, matchmakingTick);
+        this.heartbeat = new Heartbeat(clientQueue, this, timers, gameThreadPool);
+        this.queueNotifier = new QueueNotifier(clientQueue, timers);
+        this.userDatabase = new UserDatabase(userStorage);
+        this.questionBank = new QuestionBank(questionsPath);
+        this.gameMode = gameMode;
+        this.answerWindow = answerWindow;
+        this.scoring = scoring;
         this.gameId = 1;
 
         File directory = new File("src/database/tokens/");
@@ -68,27 +101,27 @@ public class Server {
         }
 
         // Schedulers
-        schedulePing();
-        scheduleNotifyQueuePos();
+        timers.start(scheduler);
+        heartbeat.start();
+        queueNotifier.start();
+        scheduleQuestionsReload();
         if (this.gameMode == RANKED) {
-            scheduleMatchmakingRelax();
+            matchmaker.start(timers, gameThreadPool);
         }
-
-        this.reconnectPosition = new HashMap<>();
     }
 
     // Write message to client
-    public static void writeToClient(Socket clientSocket, String message) throws IOException {
-        OutputStream output = clientSocket.getOutputStream();
-        PrintWriter writer = new PrintWriter(output, true);
-        writer.println(message);
+    public static void writeToClient(Client client, String message) throws IOException {
+        client.getConnection().writeLine(message);
     }
 
     // Read message from client
-    public static String readFromClient(Socket clientSocket) throws IOException {
-        InputStream input = clientSocket.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-        return reader.readLine();
+    public static String readFromClient(Client client) throws IOException {
+        return client.getConnection().readLine();
+    }
+
+    GameEngine getGameEngine() {
+        return this.gameEngine;
     }
 
     // Add a log in server's UI
@@ -97,15 +130,19 @@ public class Server {
     }
 
     // State machine to handle messages received from client
-    private void handleClient(Socket socket) throws IOException {
-        Client client = new Client(socket);
+    private void handleClient(Connection connection) throws IOException {
+        Client client = new Client(connection);
         String clientAction = questionClient(client);
 
         if (clientAction == null || clientAction.isEmpty()) {
             return;
         }
 
-        String command = clientAction.split(" ")[0];
+        String[] actionParts = clientAction.split(" ");
+        String command = actionParts[0];
+        if (WireProtocol.requestsBinary(clientAction)) {
+            connection.enableBinaryProtocol();
+        }
 
         switch (command) {
             case Communication.CLIENT_AUTH:
@@ -133,314 +170,187 @@ public class Server {
     // 2. Reconnect with Token
     // 3. Register
     private String questionClient(Client client) throws IOException{
-        writeToClient(client.getSocket(), Communication.WELCOME);
-        return readFromClient(client.getSocket());
+        writeToClient(client, Communication.WELCOME);
+        return readFromClient(client);
     }
 
     // Handles client authentication
     private void handleClientAuthentication(Client client) throws IOException{
-        if (authenticateClient(client)) {
+        finishAuthentication(client, authenticateClient(client));
+    }
+
+    // Informs the Client of the authentication result and queues him on success
+    void finishAuthentication(Client client, boolean authSuccess) throws IOException {
+        if (authSuccess) {
             System.out.println("[AUTH] " + client.getUsername() + " authenticated successfully");
-            writeToClient(client.getSocket(), Communication.AUTH_SUCCESS);
+            writeToClient(client, Communication.AUTH_SUCCESS);
             assignToken(client);
-            addClientToQueuePos(client, -1);
+            addClientToQueue(client);
         } else {
             System.out.println("[AUTH] " + (client.getUsername() != null ? client.getUsername() : "Client") + " failed authentication");
-            writeToClient(client.getSocket(), Communication.AUTH_FAIL);
-            client.getSocket().close();
+            writeToClient(client, Communication.AUTH_FAIL);
+            client.getConnection().close();
         }
     }
 
-    // Verifies if client is valid and acts accordingly
+    // Asks client for his credentials and verifies them
     private boolean authenticateClient(Client client) throws IOException {
-        writeToClient(client.getSocket(), Communication.AUTH_USERNAME);
-        String username = readFromClient(client.getSocket());
+        writeToClient(client, Communication.AUTH_USERNAME);
+        String username = readFromClient(client);
         client.setUsername(username);
 
-        writeToClient(client.getSocket(), Communication.AUTH_PASSWORD);
-        String password = readFromClient(client.getSocket());
+        writeToClient(client, Communication.AUTH_PASSWORD);
+        String password = readFromClient(client);
 
-        boolean authSuccess;
+        return verifyCredentials(client, username, password);
+    }
 
-        userDatabase_lock.lock();
-        try {
-            authSuccess = userDatabase.authenticate(username, password);
+    // Verifies if client is valid and acts accordingly
+    // The password is checked without holding any lock, only the login itself is atomic
+    boolean verifyCredentials(Client client, String username, String password) throws IOException {
+        String encodedPassword = userDatabase.getEncodedPassword(username);
+        if (encodedPassword == null || password == null) return false;
 
-            if (authSuccess && userDatabase.isUserLoggedIn(username)) {
-                writeToClient(client.getSocket(), Communication.AUTH_ALREADY_LOGGED_IN);
-                System.out.println("[AUTH] " + username + " is already logged in");
-                return false;
-            }
+        try {
+            if (!passwordHasher.matches(password, encodedPassword)) return false;
+        } catch (PasswordHasher.BusyException e) {
+            System.out.println("[AUTH] " + username + " was turned away: " + e.getMessage() + " (" + passwordHasher.pending() + " pending)");
+            writeToClient(client, SERVER_BUSY_MESSAGE);
+            return false;
+        }
 
-            // get the rank of current user
-            else if (authSuccess && !userDatabase.isUserLoggedIn(username)) {
-                int userRank = userDatabase.getUserRank(username);
-                client.setRank(userRank);
-                userDatabase.userLoggedIn(username);
-            }
-        } finally {
-            userDatabase_lock.unlock();
+        if (!userDatabase.userLoggedIn(username)) {
+            writeToClient(client, Communication.AUTH_ALREADY_LOGGED_IN);
+            System.out.println("[AUTH] " + username + " is already logged in");
+            return false;
         }
 
-        return authSuccess;
+        // get the rank of current user
+        int userRank = userDatabase.getUserRank(username);
+        client.setRank(userRank);
+        return true;
     }
 
     // Handles client registration
     private void handleClientRegistration(Client client) throws IOException {
-        if (registerClient(client)) {
-            System.out.println("[REGISTRATION] " + client.getUsername() + " registered successfully");
-            writeToClient(client.getSocket(), Communication.REGISTER_SUCCESS);
-            handleClient(client.getSocket());
+        if (finishRegistration(client, registerClient(client))) {
+            handleClient(client.getConnection());
+        }
+    }
 
-        } else {
-            writeToClient(client.getSocket(), Communication.REGISTER_FAIL);
-            System.out.println("[REGISTRATION] " + (client.getUsername() != null ? client.getUsername() : "Client") + " failed registration");
-            client.getSocket().close();
+    // Informs the Client of the registration result
+    // Returns true if the Client may go on and log in
+    boolean finishRegistration(Client client, boolean registered) throws IOException {
+        if (registered) {
+            System.out.println("[REGISTRATION] " + client.getUsername() + " registered successfully");
+            writeToClient(client, Communication.REGISTER_SUCCESS);
+            return true;
         }
+
+        writeToClient(client, Communication.REGISTER_FAIL);
+        System.out.println("[REGISTRATION] " + (client.getUsername() != null ? client.getUsername() : "Client") + " failed registration");
+        client.getConnection().close();
+        return false;
     }
 
-    // Verifies if registration is valid and acts accordingly
+    // Asks client for the new account's credentials and creates it
     private boolean registerClient(Client client) throws IOException {
-        writeToClient(client.getSocket(), Communication.REGISTER_USERNAME);
-        String username = readFromClient(client.getSocket());
+        writeToClient(client, Communication.REGISTER_USERNAME);
+        String username = readFromClient(client);
         client.setUsername(username);
 
-        writeToClient(client.getSocket(), Communication.REGISTER_PASSWORD);
-        String password = readFromClient(client.getSocket());
+        writeToClient(client, Communication.REGISTER_PASSWORD);
+        String password = readFromClient(client);
+
+        return createAccount(client, username, password);
+    }
 
+    // Verifies if registration is valid and acts accordingly
+    boolean createAccount(Client client, String username, String password) {
         if (username == null || password == null || username.isEmpty() || password.isEmpty()) {
             return false;
         }
 
-        userDatabase_lock.lock();
+        // Checked before hashing too, so taken usernames don't cost a hash
+        if (userDatabase.userExists(username)) {
+            handleRegistrationError(new IllegalArgumentException("Username already exists."));
+            return false;
+        }
+
         try {
-            userDatabase.createUser(username, password);
-            String log = String.format("[REGISTRATION] New account created -> %s:%s", username, password);
-            System.out.println(log);
+            // createUser is atomic on its own
+            userDatabase.createUser(username, passwordHasher.encode(password));
+            System.out.println("[REGISTRATION] New account created -> " + username);
 
+        } catch (PasswordHasher.BusyException e) {
+            System.out.println("[REGISTRATION] " + username + " was turned away: " + e.getMessage() + " (" + passwordHasher.pending() + " pending)");
+            try {
+                writeToClient(client, SERVER_BUSY_MESSAGE);
+            } catch (IOException e2) {
+                System.out.println("[REGISTRATION] Error communicating with Client: " + e2.getMessage());
+            }
+            return false;
         } catch (Exception e) {
-            handleRegistrationError(client, e);
+            handleRegistrationError(e);
             return false;
-        } finally {
-            userDatabase_lock.unlock();
         }
 
         return true;
     }
 
     // Handles error when client is registering
-    private void handleRegistrationError(Client client, Exception e) {
-        try {
-            writeToClient(client.getSocket(), Communication.REGISTER_FAIL);
-        } catch (IOException e2) {
-            System.out.println("[REGISTRATION] Error communicating with Client: " + e.getMessage());
-        }
+    // REGISTER_FAIL is sent by finishRegistration
+    private void handleRegistrationError(Exception e) {
         System.out.println("[REGISTRATION] Client failed registration: " + e.getMessage());
     }
 
-    // Adds a Client to the clientQueue with specific pos
-    private void addClientToQueuePos(Client client, int queuePos) throws IOException{
-        clientQueue_lock.lock();
-        if (queuePos == -1) {
-            clientQueue.add(client);
-            notifyClientPosition(client, clientQueue.size());
-        }
-
-        else {
-            clientQueue.add(queuePos - 1, client);
-            notifyClientPosition(client, queuePos);
-        }
+    // Adds a Client to the end of the clientQueue
+    private void addClientToQueue(Client client) throws IOException {
+        int queuePos = clientQueue.add(client);
+        queueNotifier.joined(client, queuePos);
 
-        String log = String.format("[QUEUE] Client %s was added to the Queue (%d/%d)", client.getUsername(), clientQueue.size(), PLAYERS_PER_GAME);
+        String log = String.format("[QUEUE] Client %s was added to the Queue (%d/%d)", client.getUsername(), clientQueue.size(), playersPerGame);
         System.out.println(log);
-        checkForNewGame();
-        clientQueue_lock.unlock();
+        checkForNewGame(client);
     }
 
     // Checks if a new Game should start
-    private void checkForNewGame() throws IOException {
-        List<Client> playerList = null;
-        boolean startGame = false;
-    
-        clientQueue_lock.lock();
-        try {
-            if (clientQueue.size() >= PLAYERS_PER_GAME) {
-                switch (gameMode) {
-                    case SIMPLE:
-                        playerList = new ArrayList<>(clientQueue);
-                        clientQueue.clear();
-                        startGame = true;
-                        break;
-                    case RANKED:
-                        playerList = getPlayerListRanked();
-                        if (playerList != null) {
-                            removeClientsFromQueue(playerList);
-                            MATCHMAKING_MAX_DIFF = 100;
-                            startGame = true;
-                        }
-                        break;
+    // 'newcomer' is the Client that just joined the queue
+    private void checkForNewGame(Client newcomer) {
+        switch (gameMode) {
+            case SIMPLE:
+                // Drains the queue, other Clients may have joined meanwhile
+                List<Client> playerList;
+                while ((playerList = clientQueue.poll(playersPerGame)) != null) {
+                    startNewGame(playerList);
                 }
-            }
-        } finally {
-            clientQueue_lock.unlock();
-        }
-    
-        if (startGame) {
-            startNewGame(playerList);
-        }
-    }
-
-    // Removes clientsToRemove from Queue
-    private void removeClientsFromQueue(List<Client> clientsToRemove) {
-        clientQueue_lock.lock();
-        try {
-            for (Client client : clientsToRemove) {
-                clientQueue.remove(client);
-            }
-        } finally {
-            clientQueue_lock.unlock();
-        }
-    }
-
-    // Function that returns the list of players to start a ranked game with close rank
-    private List<Client> getPlayerListRanked() {
-        List<Client> playerList = new ArrayList<>();
-
-        clientQueue_lock.lock();
-        
-        for (int i1 = 0; i1 < clientQueue.size(); i1++) {
-            playerList.clear();
-            int rankFirst = clientQueue.get(i1).getRank();
-            playerList.add(clientQueue.get(i1));
-            for (int i2 = i1 + 1; i2 < clientQueue.size(); i2++) {
-                int rankSecond = clientQueue.get(i2).getRank();
-
-                if (Math.abs(rankFirst - rankSecond) <= MATCHMAKING_MAX_DIFF) {
-                    playerList.add(clientQueue.get(i2));
-                }
-
-                if (playerList.size() == PLAYERS_PER_GAME) {
-                    return playerList;
-                }
-            }
+                break;
+            case RANKED:
+                matchmaker.onJoin(newcomer);
+                break;
         }
-
-        clientQueue_lock.unlock();
-
-        return null;
     }
 
     // Starts a new game with players (Clients) in playerList
-    private void startNewGame(List<Client> playerList) {
+    void startNewGame(List<Client> playerList) {
+        int newGameId;
         gameId_lock.lock();
-        userDatabase_lock.lock();
         try {
-            Game game = new Game(gameId++, new ArrayList<>(playerList), userDatabase, userDatabase_lock, this);
-
-            gameThreadPool.execute(() -> {
-                try {
-                    game.startGame();
-                } catch (IOException e) {
-                    serverLog(e.getMessage());
-                }
-            });
-            String log = String.format("[Game %d] Started Game", game.getId());
-            System.out.println(log);
+            newGameId = gameId++;
         } finally {
-            userDatabase_lock.unlock();
             gameId_lock.unlock();
         }
-    }
-
-    // Pings client
-    private boolean pingClient(Client client) throws IOException {
-        writeToClient(client.getSocket(), Communication.PING);
-
-        ExecutorService pingExecutor = Executors.newSingleThreadExecutor();
-        Future<Boolean> future = pingExecutor.submit(() -> {
-            try {
-                String response = readFromClient(client.getSocket());
-                if (response.equals(Communication.PONG)) {
-                    client.setLastResponseTime();
-                    return true;
-                }
-            } catch (IOException e) {
-                // Ignore, we'll handle the client removal below
-            }
-            return false;
-        });
-
-        try {
-            return future.get(2, TimeUnit.SECONDS);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            return false;
-        } finally {
-            pingExecutor.shutdown();
-        }
-    }
 
-    // Ping all clients in Queue
-    private void pingAllClients() throws IOException {
-        clientQueue_lock.lock();
-        try {
-            Iterator<Client> iterator = clientQueue.iterator();
-            while (iterator.hasNext()) {
-                Client client = iterator.next();
-                if (!pingClient(client)) {
-                    storeQueuePosition(client);
-                    iterator.remove();
-                    userDatabase.userLoggedOut(client.getUsername());
-                    String log = String.format("[QUEUE] Client %s disconnected (%d/%d)", client.getUsername(), clientQueue.size(), PLAYERS_PER_GAME);
-                    System.out.println(log);
-                    client.getSocket().close();
-                }
-            }
-        } finally {
-            clientQueue_lock.unlock();  
-        }
-    }
+        Game game = new Game(newGameId, new ArrayList<>(playerList), questionBank.getQuestions(), answerWindow, scoring, userDatabase, this);
 
-    private void schedulePing() {
-        // - Time Intervals (in seconds) -
-        // Interval to send PING to all clients
-        int PING_INTERVAL = 3;
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                pingAllClients();
-            } catch (IOException e) {
-                System.out.println("Failed to ping clients: " + e.getMessage());
-            }
-        }, 0, PING_INTERVAL, TimeUnit.SECONDS);
-    }
-
-    private void scheduleNotifyQueuePos() {
-        // Interval to notify clients of their Queue position
-        int NOTIFY_QUEUE_POS_INTERVAL = 10;
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                notifyAllClientsPositions();
-            } catch (IOException e) {
-                System.out.println("[ERROR] Failed to notify clients positions: " + e.getMessage());
-            }
-        }, NOTIFY_QUEUE_POS_INTERVAL, NOTIFY_QUEUE_POS_INTERVAL, TimeUnit.SECONDS);
+        gameEngine.execute(game::start);
+        String log = String.format("[Game %d] Started Game", game.getId());
+        System.out.println(log);
     }
 
-    // Sends a message to the Client regarding his Queue position
-    private void notifyClientPosition(Client client, int position) throws IOException {
-        String message = "Your queue position: " + position;
-        writeToClient(client.getSocket(), message);
-    }
-
-    // Notifies all clients of their Queue position
-    private void notifyAllClientsPositions() throws IOException {
-        clientQueue_lock.lock();
-        try {
-            for (int i = 0; i < clientQueue.size(); i++) {
-                notifyClientPosition(clientQueue.get(i), i + 1);
-            }
-        } finally {
-            clientQueue_lock.unlock();
-        }
+    private void scheduleQuestionsReload() {
+        // Parsing may take a while, so it runs out of the timer thread
+        timers.scheduleAtFixedRate(questionBank::reloadIfChanged, QUESTIONS_RELOAD_INTERVAL, TimeUnit.SECONDS, gameThreadPool);
     }
 
     // Choose Mode, Simple or Ranked
@@ -467,139 +377,92 @@ public class Server {
         }
     }
 
-    // Amount of Rank to relax (add to MATCHMAKING_MAX_DIFF)
-    private void relaxMatchmaking() {
-        MATCHMAKING_MAX_DIFF += MATCHMAKING_RELAX;
-        System.out.println("[MATCHMAKING] Increased Max Difference to " + MATCHMAKING_MAX_DIFF);
-    }
-
-    private void scheduleMatchmakingRelax() {
-        // Interval to relax Matchmaking
-        int RELAX_MATCHMAKING_INTERVAL = 30;
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                relaxMatchmaking();
-                checkForNewGame();
-            } catch (IOException e) {
-                serverLog(e.getMessage());
-            }
-        }, RELAX_MATCHMAKING_INTERVAL, RELAX_MATCHMAKING_INTERVAL, TimeUnit.SECONDS);
-    }
-
     // Assigns a token to a client
     private void assignToken(Client client) throws IOException {
-        userDatabase_lock.lock();
-        try {
-            String sessionToken = userDatabase.assignSessionToken(client.getUsername());
-            writeToClient(client.getSocket(), Communication.TOKEN + " " + sessionToken);
-        } finally {
-            userDatabase_lock.unlock();
-        }
+        String sessionToken = userDatabase.assignSessionToken(client.getUsername());
+        writeToClient(client, Communication.TOKEN + " " + sessionToken);
     }
 
     // Handles Client reconnection with token
     private void handleClientReconnection(Client client) throws IOException {
+        finishReconnection(client, reconnectClient(client));
+    }
 
-        if (reconnectClient(client)) {
-            this.userDatabase_lock.lock();
-            int queuePos;
-            try {
-                queuePos = this.reconnectPosition.get(client.getUsername());
-            } finally {
-                this.userDatabase_lock.unlock();
-            }
+    // Informs the Client of the reconnection result and puts him back in his queue position
+    void finishReconnection(Client client, boolean reconnected) throws IOException {
+        if (reconnected) {
+            int queuePos = clientQueue.rejoin(client);
             String messageToClient = String.format("%s %d", Communication.RECONNECT_SUCCESS, queuePos);
-            writeToClient(client.getSocket(), messageToClient);
-            addClientToQueuePos(client, queuePos);
+            writeToClient(client, messageToClient);
+            queueNotifier.joined(client, queuePos);
+
+            String log = String.format("[QUEUE] Client %s was added back to the Queue (%d/%d)", client.getUsername(), clientQueue.size(), playersPerGame);
+            System.out.println(log);
+            checkForNewGame(client);
         } else {
             System.out.println("[RECONNECT] Client reconnection failed");
-            writeToClient(client.getSocket(), Communication.RECONNECT_FAIL);
-            client.getSocket().close();
+            writeToClient(client, Communication.RECONNECT_FAIL);
+            client.getConnection().close();
         }
     }
 
-    // Checks if Client reconnection is valid
+    // Asks Client for his session token and verifies it
     private boolean reconnectClient(Client client) throws IOException {
-        writeToClient(client.getSocket(), Communication.REQUEST_TOKEN);
-        String providedToken = readFromClient(client.getSocket());
+        writeToClient(client, Communication.REQUEST_TOKEN);
+        String providedToken = readFromClient(client);
+
+        return verifyToken(client, providedToken);
+    }
 
+    // Checks if Client reconnection is valid
+    boolean verifyToken(Client client, String providedToken) throws IOException {
         if (providedToken == null || providedToken.isEmpty()) {
             return false;
         }
 
-        userDatabase_lock.lock();
-
-        try {
-            String clientUsername = userDatabase.getUsernameFromToken(providedToken);
-            if (clientUsername != null) { // success
+        String clientUsername = userDatabase.getUsernameFromToken(providedToken);
+        if (clientUsername != null) { // success
 
-                if (userDatabase.isUserLoggedIn(clientUsername)) {
-                    writeToClient(client.getSocket(), Communication.RECONNECT_ALREADY_LOGGED_IN);
-                    return false;
-                }
-                client.setUsername(clientUsername);
-                userDatabase.userLoggedIn(clientUsername);
-                System.out.println("[RECONNECT] " + clientUsername + " reconnected with token");
-                return true;
+            if (!userDatabase.userLoggedIn(clientUsername)) {
+                writeToClient(client, Communication.RECONNECT_ALREADY_LOGGED_IN);
+                return false;
             }
-            return false;
-        } finally {
-            userDatabase_lock.unlock();
-        }
-    }
-
-    // Stores the queue position of a Client
-    // This is useful for reconnections
-    private void storeQueuePosition(Client client) {
-        clientQueue_lock.lock();
-        try {
-            String username = client.getUsername();
-            int queuePos = getQueuePosition(client);
-            reconnectPosition.put(username, queuePos);
-        } finally {
-             clientQueue_lock.unlock();
-        }
-    }
-
-    // Gets a Client's queue position
-    // Returns -1 if client is not in the queue
-    private int getQueuePosition(Client client) {
-        clientQueue_lock.lock();
-        try {
-            for (int pos = 0; pos < clientQueue.size(); pos++) {
-                if (clientQueue.get(pos) == client) return pos + 1;
-            }
-            return -1;
-        } finally {
-            clientQueue_lock.unlock();
+            client.setUsername(clientUsername);
+            client.setRank(userDatabase.getUserRank(clientUsername));
+            System.out.println("[RECONNECT] " + clientUsername + " reconnected with token");
+            return true;
         }
+        return false;
     }
 
+    // Asks every player of a finished game if he wants to requeue or exit
+    // Every Client is asked at the same time, so a slow one doesn't hold the others back
     public void reQueuePlayers(List<Client> clients) {
         for (Client client : clients) {
-            requeueOrExit(client);
+            gameThreadPool.execute(() -> requeueOrExit(client));
         }
     }
 
     // Asks a client if he wants to requeue or exit
     public void requeueOrExit(Client client) {
         try {
-            writeToClient(client.getSocket(), Communication.REQUEUE_OR_QUIT);
-            String clientAnswer = readFromClient(client.getSocket());
+            client.getConnection().discardReceived(); // e.g. an answer that came after its deadline
+            writeToClient(client, Communication.REQUEUE_OR_QUIT);
+            String clientAnswer = readFromClient(client);
 
             if (clientAnswer == null || clientAnswer.isEmpty()) {
-                client.getSocket().close();
+                client.getConnection().close();
                 return;
             }
 
             switch (clientAnswer) {
                 case Communication.REQUEUE:
-                    addClientToQueuePos(client, -1);
+                    addClientToQueue(client);
                     break;
     
                 case Communication.QUIT:
                     logoutUser(client);
-                    client.getSocket().close();
+                    client.getConnection().close();
                     break;
             
                 default:
@@ -611,40 +474,106 @@ public class Server {
     }
 
     private void logoutUser(Client client) {
-        userDatabase_lock.lock();
-        try {
-            userDatabase.userLoggedOut(client.getUsername());
-        } finally {
-            userDatabase_lock.unlock();
-        }
+        userDatabase.userLoggedOut(client.getUsername());
     }
 
-    public static void main(String[] args) {
-        if (args.length < 1) return;
-
-        // Choose Mode, Simple or Ranked
-        int gameMode = chooseGameMode();
-        int port = Integer.parseInt(args[0]);
+    // Logs out and closes Clients that lost their connection while queued (see Heartbeat)
+    void disconnectClients(List<Client> clients) {
+        for (Client client : clients) {
+            userDatabase.userLoggedOut(client.getUsername());
+        }
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        for (Client client : clients) {
+            try {
+                client.getConnection().close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
 
-            Server server = new Server(gameMode);
-            System.out.println("Server is listening on port " + port);
+    // Blocking transport: one virtual thread per connection
+    private static void runBlockingTransport(Server server, int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            System.out.println("Server is listening on port " + port + " (blocking transport)");
 
             while (true) {
                 Socket socket = serverSocket.accept();
                 Thread.startVirtualThread(() -> {
                     try {
-                        server.handleClient(socket);
+                        SocketConnection connection = new SocketConnection(socket);
+                        connection.start();
+                        server.handleClient(connection);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
                 });
             }
+        }
+    }
+
+    // Non-blocking transport: a single selector thread for every connection
+    private static void runNioTransport(Server server, int port) throws IOException {
+        NioServer nioServer = new NioServer(server, port);
+        System.out.println("Server is listening on port " + port + " (nio transport)");
+        nioServer.run();
+    }
+
+    // Usage: java Server <port> [blocking|nio] [matchmakingTick] [playersPerGame] [questionsFile] [json|lsm] [answerWindow] [classic|speed]
+    public static void main(String[] args) {
+        if (args.length < 1) return;
+
+        int port = Integer.parseInt(args[0]);
+        String transport = args.length >= 2 ? args[1] : BLOCKING_TRANSPORT;
+        if (!transport.equals(BLOCKING_TRANSPORT) && !transport.equals(NIO_TRANSPORT)) {
+            System.out.println("Unknown transport '" + transport + "', use " + BLOCKING_TRANSPORT + " or " + NIO_TRANSPORT);
+            return;
+        }
+        // Interval (in ms) between ranked matchmaking passes
+        int matchmakingTick = args.length >= 3 ? Integer.parseInt(args[2]) : Matchmaker.DEFAULT_TICK_INTERVAL;
+        if (matchmakingTick <= 0) {
+            System.out.println("Matchmaking tick must be positive");
+            return;
+        }
+        int playersPerGame = args.length >= 4 ? Integer.parseInt(args[3]) : DEFAULT_PLAYERS_PER_GAME;
+        if (playersPerGame < 2) {
+            System.out.println("A game needs at least 2 players");
+            return;
+        }
+        String questionsPath = args.length >= 5 ? args[4] : DEFAULT_QUESTIONS_PATH;
+        // Storage engine of the users, see UserDatabase
+        String userStorage = args.length >= 6 ? args[5] : UserDatabase.JSON_STORAGE;
+        if (!userStorage.equals(UserDatabase.JSON_STORAGE) && !userStorage.equals(UserDatabase.LSM_STORAGE)) {
+            System.out.println("Unknown user storage '" + userStorage + "', use " + UserDatabase.JSON_STORAGE + " or " + UserDatabase.LSM_STORAGE);
+            return;
+        }
+        // Time (in seconds) players have to answer each question
+        int answerWindow = args.length >= 7 ? Integer.parseInt(args[6]) : DEFAULT_ANSWER_WINDOW;
+        if (answerWindow <= 0) {
+            System.out.println("Answer window must be positive");
+            return;
+        }
+        Scoring scoring = args.length >= 8 ? Scoring.parse(args[7]) : Scoring.CLASSIC;
+        if (scoring == null) {
+            System.out.println("Unknown scoring '" + args[7] + "', use classic or speed");
+            return;
+        }
+
+        // Choose Mode, Simple or Ranked
+        int gameMode = chooseGameMode();
+
+        try {
+            Server server = new Server(gameMode, playersPerGame, matchmakingTick, questionsPath, userStorage, answerWindow, scoring);
+
+            if (transport.equals(NIO_TRANSPORT)) {
+                runNioTransport(server, port);
+            } else {
+                runBlockingTransport(server, port);
+            }
 
         } catch (IOException ex) {
             System.out.println("Server exception: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
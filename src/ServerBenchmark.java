@@ -0,0 +1,229 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Load generator for the Server
+// - Handshake mode, used to compare the transports (blocking vs nio):
+//   opens 'connections' clients, each one goes through WELCOME -> CLIENT_AUTH -> AUTH_USERNAME
+//   and then stays idle, like a queued player
+// - Play mode, used to compare lobby sizes (see Server's playersPerGame):
+//   registers 'connections' new users, logs them in and plays one game with each of them
+//   Registered users are kept in the database
+// Usage: java ServerBenchmark <host> <port> <connections> [holdSeconds|play]
+public class ServerBenchmark {
+    // Maximum number of handshakes in flight
+    private static final int MAX_CONCURRENT_HANDSHAKES = 256;
+    // Time (in ms) to wait for the connection and for each server reply
+    private static final int TIMEOUT = 10000;
+    // Time (in ms) a player waits for each server message while playing (covers queue and countdown)
+    private static final int PLAY_TIMEOUT = 120000;
+    private static final String PLAY = "play";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java ServerBenchmark <host> <port> <connections> [holdSeconds|play]");
+            return;
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = Integer.parseInt(args[2]);
+        if (args.length >= 4 && args[3].equals(PLAY)) {
+            benchmarkGames(host, port, connections);
+            return;
+        }
+        int holdSeconds = args.length >= 4 ? Integer.parseInt(args[3]) : 10;
+
+        List<Socket> openSockets = new ArrayList<>(connections);
+        long[] latencies = new long[connections];
+        AtomicInteger failures = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(MAX_CONCURRENT_HANDSHAKES);
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                final int index = i;
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        long begin = System.nanoTime();
+                        Socket socket = handshake(host, port);
+                        latencies[index] = System.nanoTime() - begin;
+                        synchronized (openSockets) {
+                            openSockets.add(socket);
+                        }
+                    } catch (IOException e) {
+                        latencies[index] = -1;
+                        failures.incrementAndGet();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] successful = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        System.out.printf("Connections: %d ok, %d failed%n", successful.length, failures.get());
+        System.out.printf("Handshake rate: %.0f/s%n", successful.length / (elapsed / 1e9));
+        if (successful.length > 0) {
+            System.out.printf("Handshake latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    percentile(successful, 0.50), percentile(successful, 0.99), successful[successful.length - 1] / 1e6);
+        }
+
+        System.out.println("Holding connections for " + holdSeconds + "s...");
+        TimeUnit.SECONDS.sleep(holdSeconds);
+
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+    }
+
+    // Every player registers, logs in, answers every question and quits after one game
+    private static void benchmarkGames(String host, int port, int players) throws Exception {
+        String prefix = "bench-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+        // When each player's game started and ended (System.nanoTime), -1 if it failed
+        long[] gameStarts = new long[players];
+        long[] gameEnds = new long[players];
+        long[] answerLatencies = new long[players * 16];
+        AtomicInteger answers = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < players; i++) {
+                final int index = i;
+                executor.execute(() -> {
+                    try {
+                        play(host, port, prefix + index, gameStarts, gameEnds, index, answerLatencies, answers);
+                    } catch (IOException e) {
+                        gameEnds[index] = -1;
+                        failures.incrementAndGet();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Registration and login are left out of the rates, only the time spent in games counts
+        long firstStart = Long.MAX_VALUE;
+        long lastEnd = Long.MIN_VALUE;
+        List<Long> gameTimes = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            if (gameEnds[i] == -1) continue;
+            firstStart = Math.min(firstStart, gameStarts[i]);
+            lastEnd = Math.max(lastEnd, gameEnds[i]);
+            gameTimes.add(gameEnds[i] - gameStarts[i]);
+        }
+        System.out.printf("Players: %d finished, %d failed in %.1fs%n", gameTimes.size(), failures.get(), elapsed / 1e9);
+        if (gameTimes.isEmpty()) return;
+
+        long[] games = gameTimes.stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] latencies = Arrays.stream(answerLatencies, 0, Math.min(answers.get(), answerLatencies.length)).sorted().toArray();
+        double playing = (lastEnd - firstStart) / 1e9;
+        System.out.printf("Games played over %.1fs: %.1f players/s%n", playing, games.length / playing);
+        System.out.printf("Time in game: p50 %.0f ms, p99 %.0f ms%n", percentile(games, 0.50), percentile(games, 0.99));
+        if (latencies.length > 0) {
+            System.out.printf("Answers: %d, %.0f/s, result latency p50 %.2f ms, p99 %.2f ms%n", latencies.length,
+                    latencies.length / playing, percentile(latencies, 0.50), percentile(latencies, 0.99));
+        }
+    }
+
+    // Plays one game as 'username', player number 'index'
+    // Records when his game started (first game message) and ended (REQUEUE_OR_QUIT),
+    // and the time between each answer and its result in 'answerLatencies'
+    private static void play(String host, int port, String username, long[] gameStarts, long[] gameEnds, int index,
+                             long[] answerLatencies, AtomicInteger answers) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            socket.setSoTimeout(PLAY_TIMEOUT);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+
+            expect(reader, Communication.WELCOME);
+            writer.println(Communication.CLIENT_REGISTER);
+            expect(reader, Communication.REGISTER_USERNAME);
+            writer.println(username);
+            expect(reader, Communication.REGISTER_PASSWORD);
+            writer.println(username);
+            expect(reader, Communication.REGISTER_SUCCESS);
+
+            expect(reader, Communication.WELCOME);
+            writer.println(Communication.CLIENT_AUTH);
+            expect(reader, Communication.AUTH_USERNAME);
+            writer.println(username);
+            expect(reader, Communication.AUTH_PASSWORD);
+            writer.println(username);
+            expect(reader, Communication.AUTH_SUCCESS);
+
+            long gameStart = -1;
+            long answerSent = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                switch (line) {
+                    case Communication.PING:
+                        writer.println(Communication.PONG);
+                        break;
+                    case Communication.PROVIDE_ANSWER:
+                        answerSent = System.nanoTime();
+                        writer.println("True");
+                        break;
+                    case Communication.REQUEUE_OR_QUIT:
+                        writer.println(Communication.QUIT);
+                        gameStarts[index] = gameStart;
+                        gameEnds[index] = System.nanoTime();
+                        return;
+                    default:
+                        if (gameStart == -1 && !line.startsWith(Communication.TOKEN) && !line.startsWith(Communication.QUEUE_POSITION)) {
+                            gameStart = System.nanoTime();
+                        }
+                        // Result of the last answer
+                        if (answerSent != -1 && (line.startsWith("Correct!") || line.startsWith("Incorrect!"))) {
+                            int answer = answers.getAndIncrement();
+                            if (answer < answerLatencies.length) {
+                                answerLatencies[answer] = System.nanoTime() - answerSent;
+                            }
+                            answerSent = -1;
+                        }
+                        break;
+                }
+            }
+            throw new IOException("Connection closed before the end of the game");
+        }
+    }
+
+    // Connects and walks the protocol up to the username prompt
+    private static Socket handshake(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+        socket.setSoTimeout(TIMEOUT);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+
+        expect(reader, Communication.WELCOME);
+        writer.println(Communication.CLIENT_AUTH);
+        expect(reader, Communication.AUTH_USERNAME);
+        return socket;
+    }
+
+    private static void expect(BufferedReader reader, String expected) throws IOException {
+        String line = reader.readLine();
+        if (!expected.equals(line)) {
+            throw new IOException("Expected " + expected + " but got " + line);
+        }
+    }
+
+    // Percentile (in ms) of sorted latencies (in ns)
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,67 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+
+// Session tokens used to reconnect, in two parts: "<selector>.<validator>"
+// - The selector names the token. It is stored as is and indexed by the UserStore, so a token is found with a single lookup
+// - The validator is the secret. Only its SHA-256 hash is stored ("<selector>.<hash>"), and it is compared in constant time
+// Both parts are random (SecureRandom), so unlike passwords they can't be guessed and a fast hash is enough
+public class SessionTokens {
+    private static final int SELECTOR_BYTES = 12;
+    private static final int VALIDATOR_BYTES = 32;
+    private static final char SEPARATOR = '.';
+
+    // A token as given to its Client, and as stored in the database
+    public record Issued(String token, String stored) {
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    public Issued issue() {
+        String selector = randomString(SELECTOR_BYTES);
+        String validator = randomString(VALIDATOR_BYTES);
+        String stored = selector + SEPARATOR + HexFormat.of().formatHex(sha256(validator));
+        return new Issued(selector + SEPARATOR + validator, stored);
+    }
+
+    // Selector of a token, given or stored
+    // Returns null if it isn't one (e.g. a stored token from an older version, its owner logs in again)
+    public static String selectorOf(String token) {
+        if (token == null) return null;
+        int separator = token.indexOf(SEPARATOR);
+        return separator > 0 ? token.substring(0, separator) : null;
+    }
+
+    // Checks a token given by a Client against the stored one
+    public static boolean matches(String token, String stored) {
+        String selector = selectorOf(token);
+        if (selector == null || stored == null || !selector.equals(selectorOf(stored))) return false;
+
+        byte[] storedHash;
+        try {
+            storedHash = HexFormat.of().parseHex(stored, selector.length() + 1, stored.length());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        byte[] hash = sha256(token.substring(selector.length() + 1));
+        return MessageDigest.isEqual(hash, storedHash);
+    }
+
+    private String randomString(int bytes) {
+        byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        return encoder.encodeToString(value);
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Blocking transport: wraps a plain Socket
+// Owns a single reader and writer for the whole life of the socket, so no bytes are lost
+// between reads and lines can be batched into a single write
+// A virtual thread keeps reading the socket, even while nobody waits for a line (e.g. the Client is queued),
+// so PONGs are noticed as they arrive, the other lines are handed to 'readLine' callers through the inbox
+// Another one writes the lines queued by 'send' once flushed, so only it blocks on a slow client
+public class SocketConnection implements Connection {
+    // Time the lines queued before a close have to be written
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final Socket socket;
+    private final WireProtocol.Reader reader;
+    // Only used by the writer thread
+    private final OutputStream writer;
+    private volatile boolean binaryProtocol = false;
+
+    // Lines waiting for the writer thread, often shared with other connections (see EncodedMessage)
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final ReentrantLock outbound_lock = new ReentrantLock();
+    private final Condition flushed = outbound_lock.newCondition();
+    private boolean flushRequested = false;
+    // Closed for senders, the writer closes the socket once the queue is written
+    private volatile boolean closing = false;
+    // Writer state, to know if a close must bound its last writes
+    private boolean writing = false;
+    private boolean writerDone = false;
+    // Closes the socket at the close deadline, interrupted by the writer when it finishes first
+    private Thread closeTimer;
+    private volatile long lastPongTime = System.nanoTime();
+
+    // Lines received, consumed by readLine
+    private final Inbox inbox = new Inbox();
+
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.reader = new WireProtocol.Reader(new BufferedInputStream(socket.getInputStream()));
+        this.writer = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    // Starts the reader and writer threads, nothing is read or written before
+    public void start() {
+        Thread.startVirtualThread(this::readLines);
+        Thread.startVirtualThread(this::writeLines);
+    }
+
+    @Override
+    public boolean send(EncodedMessage message) throws IOException {
+        if (closing) {
+            throw new IOException("Connection closed");
+        }
+
+        OutboundQueue.Result result;
+        long waiting;
+        outbound_lock.lock();
+        try {
+            result = outbound.add(message, binaryProtocol);
+            waiting = outbound.size();
+        } finally {
+            outbound_lock.unlock();
+        }
+
+        if (result == OutboundQueue.Result.OVERFLOWED) {
+            abort();
+            Server.serverLog(String.format("[CONNECTION] Closed a slow client, %d bytes were waiting", waiting));
+            throw new IOException("Client too slow, connection closed");
+        }
+        return result == OutboundQueue.Result.QUEUED;
+    }
+
+    @Override
+    public void flush() {
+        outbound_lock.lock();
+        try {
+            if (outbound.isEmpty()) return;
+            flushRequested = true;
+            flushed.signal();
+        } finally {
+            outbound_lock.unlock();
+        }
+    }
+
+    // Writes the flushed lines until the connection closes, each batch in a single write
+    // Blocks on a slow client without holding outbound_lock, meanwhile senders keep queueing
+    private void writeLines() {
+        try {
+            while (true) {
+                List<OutboundQueue.Entry> batch;
+                outbound_lock.lock();
+                try {
+                    writing = false;
+                    while (!flushRequested && !closing) {
+                        flushed.await();
+                    }
+                    if (outbound.isEmpty() && closing) break;
+                    batch = outbound.takeAll();
+                    flushRequested = false;
+                    writing = true;
+                } finally {
+                    outbound_lock.unlock();
+                }
+
+                for (OutboundQueue.Entry entry : batch) {
+                    entry.writeTo(writer);
+                }
+                writer.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // Closed or broken socket, nothing left to write to
+        } finally {
+            closeSocket();
+            outbound_lock.lock();
+            try {
+                writerDone = true;
+                if (closeTimer != null) closeTimer.interrupt();
+            } finally {
+                outbound_lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void enableBinaryProtocol() {
+        this.binaryProtocol = true;
+    }
+
+    // Reads the socket until it is closed
+    private void readLines() {
+        // The client sends frames right after asking for them, before the Server handles the request,
+        // so the reader switches on its own (see WireProtocol.requestsBinary)
+        boolean binaryInput = false;
+        try {
+            while (true) {
+                String line = binaryInput ? (reader.nextFrame() ? reader.toLine() : null) : reader.readLine();
+                if (line == null) break;
+
+                if (line.equals(Communication.PONG)) {
+                    lastPongTime = System.nanoTime();
+                    continue;
+                }
+                if (!binaryInput && WireProtocol.requestsBinary(line)) {
+                    binaryInput = true;
+                }
+                inbox.add(line);
+            }
+        } catch (IOException e) {
+            // Closed or broken socket, same as the end of the stream
+        } finally {
+            inbox.close();
+            close();
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return inbox.take();
+    }
+
+    @Override
+    public void discardReceived() {
+        inbox.clear();
+    }
+
+    @Override
+    public void setLineListener(LineListener listener) {
+        inbox.setListener(listener);
+    }
+
+    @Override
+    public long getLastPongTime() {
+        return lastPongTime;
+    }
+
+    // Lines already queued are still written, for at most CLOSE_TIMEOUT (e.g. AUTH_FAIL)
+    // The writer closes the socket once they are, only a write still pending needs a timer
+    @Override
+    public void close() {
+        outbound_lock.lock();
+        try {
+            if (closing) return;
+            closing = true;
+            flushed.signal();
+            if (writerDone || (outbound.isEmpty() && !writing)) return;
+
+            closeTimer = Thread.startVirtualThread(() -> {
+                try {
+                    Thread.sleep(CLOSE_TIMEOUT);
+                } catch (InterruptedException e) {
+                    return; // The writer finished and closed the socket
+                }
+                closeSocket();
+            });
+        } finally {
+            outbound_lock.unlock();
+        }
+    }
+
+    // Closes right away, dropping the queued lines
+    private void abort() {
+        outbound_lock.lock();
+        try {
+            closing = true;
+            outbound.clear();
+            flushed.signal();
+        } finally {
+            outbound_lock.unlock();
+        }
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closing || socket.isClosed();
+    }
+}
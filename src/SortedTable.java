@@ -0,0 +1,238 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Immutable file of key -> value entries sorted by key, part of an LsmUserStore
+// Memory mapped, only a sparse index (every INDEX_INTERVAL-th key) is kept in the heap,
+// so a lookup is a binary search in the index plus a scan of at most INDEX_INTERVAL entries
+//
+// Layout (big endian):
+//   entries: u16 key length, UTF-8 key, int value length (-1 for a tombstone), value
+//   index:   count (int), then u16 key length, UTF-8 key, entry offset (long)
+//   footer:  index offset (long), number of entries (int), magic (int)
+// Mapped as a single buffer, so a table is at most 2 GB
+public class SortedTable {
+    private static final int MAGIC = 0x55535354; // "USST"
+    private static final int FOOTER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+    private static final int INDEX_INTERVAL = 32;
+    private static final int TOMBSTONE_LENGTH = -1;
+
+    // Value of a deleted key, compared by identity
+    public static final byte[] TOMBSTONE = new byte[0];
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final String[] indexKeys;
+    private final int[] indexOffsets;
+
+    private SortedTable(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        int footer = buffer.limit() - FOOTER_SIZE;
+        if (footer < 0 || buffer.getInt(footer + Long.BYTES + Integer.BYTES) != MAGIC) {
+            throw new IOException(path + " is not a sorted table");
+        }
+        int indexOffset = (int) buffer.getLong(footer);
+        this.entryCount = buffer.getInt(footer + Long.BYTES);
+
+        int indexCount = buffer.getInt(indexOffset);
+        this.indexKeys = new String[indexCount];
+        this.indexOffsets = new int[indexCount];
+        int position = indexOffset + Integer.BYTES;
+        for (int i = 0; i < indexCount; i++) {
+            int keyLength = buffer.getShort(position) & 0xFFFF;
+            indexKeys[i] = readString(position + Short.BYTES, keyLength);
+            position += Short.BYTES + keyLength;
+            indexOffsets[i] = (int) buffer.getLong(position);
+            position += Long.BYTES;
+        }
+    }
+
+    public static SortedTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too big to be mapped");
+            }
+            // The mapping stays valid once the channel is closed, and once the file is deleted
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SortedTable(path, buffer);
+        }
+    }
+
+    // Writes 'entries' (sorted by key) to a new table at 'path', then opens it
+    // Tombstones are written only if 'keepTombstones', i.e. unless the table replaces every older one
+    // Written to a temporary file, synced and renamed, so a table is either complete or missing
+    public static SortedTable write(Path path, Iterator<Map.Entry<String, byte[]>> entries, boolean keepTombstones) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        long position = 0;
+        int count = 0;
+
+        try (OutputStream file = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            while (entries.hasNext()) {
+                Map.Entry<String, byte[]> entry = entries.next();
+                byte[] value = entry.getValue();
+                if (value == TOMBSTONE && !keepTombstones) continue;
+
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add(position);
+                }
+                out.writeShort(key.length);
+                out.write(key);
+                if (value == TOMBSTONE) {
+                    out.writeInt(TOMBSTONE_LENGTH);
+                    position += Short.BYTES + key.length + Integer.BYTES;
+                } else {
+                    out.writeInt(value.length);
+                    out.write(value);
+                    position += Short.BYTES + key.length + Integer.BYTES + value.length;
+                }
+                count++;
+            }
+
+            long indexOffset = position;
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                byte[] key = indexKeys.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    // Returns the value of 'key', TOMBSTONE if it was deleted, or null if this table doesn't have it
+    public byte[] get(String key) {
+        int block = indexBlock(key);
+        if (block < 0) return null;
+
+        int position = indexOffsets[block];
+        int end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : indexEnd();
+        while (position < end) {
+            int keyLength = buffer.getShort(position) & 0xFFFF;
+            int comparison = readString(position + Short.BYTES, keyLength).compareTo(key);
+            position += Short.BYTES + keyLength;
+            int valueLength = buffer.getInt(position);
+            position += Integer.BYTES;
+
+            if (comparison == 0) return readValue(position, valueLength);
+            if (comparison > 0) return null;
+            if (valueLength != TOMBSTONE_LENGTH) position += valueLength;
+        }
+        return null;
+    }
+
+    // Entries with a key >= 'from', in order, tombstones included
+    public Iterator<Map.Entry<String, byte[]>> iterator(String from) {
+        int block = Math.max(0, indexBlock(from));
+        int start = indexOffsets.length > 0 ? indexOffsets[block] : 0;
+
+        return new Iterator<>() {
+            private int position = start;
+            private Map.Entry<String, byte[]> next = advance();
+
+            private Map.Entry<String, byte[]> advance() {
+                while (position < indexEnd()) {
+                    int keyLength = buffer.getShort(position) & 0xFFFF;
+                    String key = readString(position + Short.BYTES, keyLength);
+                    position += Short.BYTES + keyLength;
+                    int valueLength = buffer.getInt(position);
+                    position += Integer.BYTES;
+                    byte[] value = readValue(position, valueLength);
+                    if (valueLength != TOMBSTONE_LENGTH) position += valueLength;
+
+                    if (key.compareTo(from) >= 0) return Map.entry(key, value);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (next == null) throw new NoSuchElementException();
+                Map.Entry<String, byte[]> current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    // Index of the last block whose first key is <= 'key', -1 if 'key' is before the first one
+    private int indexBlock(String key) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexKeys[middle].compareTo(key) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    // Where the entries end (and the index starts)
+    private int indexEnd() {
+        return (int) buffer.getLong(buffer.limit() - FOOTER_SIZE);
+    }
+
+    private byte[] readValue(int position, int length) {
+        if (length == TOMBSTONE_LENGTH) return TOMBSTONE;
+        byte[] value = new byte[length];
+        buffer.get(position, value);
+        return value;
+    }
+
+    private String readString(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
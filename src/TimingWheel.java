@@ -0,0 +1,160 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Hashed timing wheel
+// Time is split in ticks, and every timeout goes to the slot of its deadline tick (modulo the wheel size)
+// - schedule and cancel are O(1), whatever the number of pending timeouts
+// - Each tick only looks at one slot, timeouts more than a lap away stay there until their lap comes
+// - Cancelled timeouts are only flagged, and dropped when the wheel reaches their slot
+// Timeouts run on the thread driving the wheel (see start), so they must be short
+// The Server keeps a single wheel for all its timeouts: heartbeat deadlines, answer deadlines and periodic tasks
+public class TimingWheel {
+
+    // A scheduled task, may be cancelled until it runs
+    public static final class Timeout {
+        private final Runnable task;
+        // 0 for one shot timeouts
+        private final long period;
+        // Only changed by the wheel thread, when a periodic timeout is rescheduled
+        private long deadline;
+        private volatile boolean cancelled = false;
+        // Next timeout in the same slot, only touched by the wheel thread
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    private final long tickDuration;
+    private final Timeout[] slots;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    // Ticks already processed, only touched by the wheel thread
+    private long currentTick = 0;
+    // Timeouts scheduled since the last tick, moved to their slots by the wheel thread
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    // 'wheelSize' is rounded up to a power of two
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        this.tickDuration = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.slots = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleAtFixedRate(this::tick, tickDuration, tickDuration, TimeUnit.NANOSECONDS);
+    }
+
+    // Runs 'task' once 'delay' has passed, with a precision of one tick
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay), 0);
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    // Runs 'task' every 'period', starting one period from now, until cancelled
+    public Timeout scheduleAtFixedRate(Runnable task, long period, TimeUnit unit) {
+        long periodNanos = Math.max(unit.toNanos(period), tickDuration);
+        Timeout timeout = new Timeout(task, System.nanoTime() + periodNanos, periodNanos);
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    // Runs 'task' on 'executor' every 'period', for periodic work that isn't short (e.g. a sweep of the queue)
+    // A run is skipped while the previous one is still going
+    public Timeout scheduleAtFixedRate(Runnable task, long period, TimeUnit unit, Executor executor) {
+        AtomicBoolean running = new AtomicBoolean(false);
+        return scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true)) return;
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    running.set(false);
+                }
+            });
+        }, period, unit);
+    }
+
+    // Processes every tick up to now
+    private void tick() {
+        long lastTick = (System.nanoTime() - startTime) / tickDuration;
+        while (currentTick <= lastTick) {
+            transferScheduled();
+            expireSlot(currentTick);
+            currentTick++;
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.cancelled) continue;
+            insert(timeout, currentTick);
+        }
+    }
+
+    // Puts 'timeout' in the slot of its deadline, late timeouts go to the slot of 'minimumTick'
+    private void insert(Timeout timeout, long minimumTick) {
+        long tick = Math.max(minimumTick, ticksOf(timeout.deadline));
+        int slot = (int) (tick & mask);
+        timeout.next = slots[slot];
+        slots[slot] = timeout;
+    }
+
+    // Runs the timeouts of the slot due at 'tick', keeping the ones that are laps away
+    private void expireSlot(long tick) {
+        int slot = (int) (tick & mask);
+        Timeout remaining = null;
+        Timeout timeout = slots[slot];
+        slots[slot] = null;
+        // Periodic timeouts that ran, rescheduled once the slot is settled
+        Timeout rescheduled = null;
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                // Dropped
+            } else if (ticksOf(timeout.deadline) <= tick) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("[TIMER] Timeout failed: " + e.getMessage());
+                }
+                if (timeout.period > 0) {
+                    timeout.deadline += timeout.period;
+                    timeout.next = rescheduled;
+                    rescheduled = timeout;
+                }
+            } else {
+                timeout.next = remaining;
+                remaining = timeout;
+            }
+            timeout = next;
+        }
+        slots[slot] = remaining;
+
+        while (rescheduled != null) {
+            Timeout next = rescheduled.next;
+            // Never in this same tick, even if it fell behind
+            insert(rescheduled, tick + 1);
+            rescheduled = next;
+        }
+    }
+
+    private long ticksOf(long time) {
+        return (time - startTime + tickDuration - 1) / tickDuration;
+    }
+}
@@ -1,29 +1,54 @@
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-
-import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.file.Path;
 import java.util.Map;
-import java.util.UUID;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Users are kept by a UserStore (JsonUserStore or LsmUserStore) and persisted through a write-ahead log (see UserLog)
+// Changes are appended to the log, and the store is only checkpointed when the log is compacted
+// Thread safe without a global lock: the stores and logged in users are concurrent,
+// and the few changes that must stay in order with their log record (session tokens) lock only their user's stripe
 public class UserDatabase {
     private static final String FILE_PATH = "src/database/users.json";
-    private Map<String, User> users;
-    private final HashSet<String> loggedInUsers = new HashSet<>();
-    private final ObjectMapper objectMapper;
-    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
-    private final BCryptPasswordEncoder tokenEncoder = new BCryptPasswordEncoder();
+    private static final int NEW_USER_RANK = 100;
+    private static final String LSM_PATH = "src/database/users.lsm";
+    // Storage engines
+    public static final String JSON_STORAGE = "json";
+    public static final String LSM_STORAGE = "lsm";
+
+    private final UserStore store;
+    private final UserLog userLog;
+    private final RankUpdater rankUpdater;
+    private final Set<String> loggedInUsers = ConcurrentHashMap.newKeySet();
+    // Striped by username, see lockFor
+    private static final int USER_LOCK_STRIPES = 64;
+    private final ReentrantLock[] user_locks = new ReentrantLock[USER_LOCK_STRIPES];
+    private final SessionTokens sessionTokens = new SessionTokens();
 
     public UserDatabase() throws IOException {
-        this.objectMapper = new ObjectMapper();
-        loadUsers();
+        this(JSON_STORAGE);
+    }
+
+    // 'storage' is JSON_STORAGE (every user in memory, users.json)
+    // or LSM_STORAGE (on disk in users.lsm, users.json is imported the first time)
+    public UserDatabase(String storage) throws IOException {
+        for (int i = 0; i < USER_LOCK_STRIPES; i++) {
+            user_locks[i] = new ReentrantLock();
+        }
+        this.store = switch (storage) {
+            case JSON_STORAGE -> new JsonUserStore(Path.of(FILE_PATH));
+            case LSM_STORAGE -> LsmUserStore.open(Path.of(LSM_PATH), Path.of(FILE_PATH));
+            default -> throw new IllegalArgumentException("Unknown user storage " + storage);
+        };
+        this.userLog = new UserLog(Path.of(FILE_PATH).getParent(), store::checkpoint, this::replay);
+        this.rankUpdater = new RankUpdater(store, userLog);
+        rankUpdater.start();
     }
 
-    // Adds user to loggedInUsers
-    void userLoggedIn(String username) { loggedInUsers.add(username); }
+    // Adds user to loggedInUsers, atomically
+    // Returns false if he was already logged in
+    boolean userLoggedIn(String username) { return loggedInUsers.add(username); }
 
     // Removes user from loggedInUsers
     void userLoggedOut(String username) { loggedInUsers.remove(username); }
@@ -31,139 +56,113 @@ public class UserDatabase {
     // Checks if user is logged in
     boolean isUserLoggedIn(String username) { return loggedInUsers.contains(username); }
 
-    // Loads users from database file
-    private void loadUsers() throws IOException {
-        File file = new File(FILE_PATH);
-        if (file.exists()) {
-            if (file.length() == 0) {
-                users = new HashMap<>();
-                return;
-            }
-            users = objectMapper.readValue(file, new TypeReference<>() {
-            });
-        } else {
-            throw new IOException("User database file not found.");
+    // Applies a record of the log, during recovery
+    private void replay(UserLog.Entry entry) {
+        switch (entry.type()) {
+            case UserLog.Entry.USER:
+                store.create(entry.username(), entry.password(), entry.rank());
+                break;
+            case UserLog.Entry.RANK:
+                store.setRank(entry.username(), entry.rank());
+                break;
+            case UserLog.Entry.TOKEN:
+                store.setSessionToken(entry.username(), entry.sessionToken());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown log record type " + entry.type());
         }
     }
 
-    // Saves users to database file
-    private void saveUsers() throws IOException {
-        objectMapper.writeValue(new File(FILE_PATH), users);
+    // Gets the password hash of user with 'username', to be checked by a PasswordHasher
+    // Returns null if user is not found
+    public String getEncodedPassword(String username) {
+        UserStore.StoredUser user = store.get(username);
+        return user != null ? user.password() : null;
     }
 
-    // Verifies if user with username:password exists in the database file
-    public boolean authenticate(String username, String password) {
-        User user = users.get(username);
-        return user != null && passwordEncoder.matches(password, user.getPassword());
+    public boolean userExists(String username) {
+        return store.get(username) != null;
     }
 
-    // Increments User rank by 'addedRank'
-    public void incrementRank(String username, int addedRank) throws IOException{
-        User user = users.get(username);
-        if (user != null) {
-            int currRank = user.getRank();
-            user.setRank(currRank + addedRank);
-            saveUsers();
-        }
+    // Submits the rank changes (username -> delta) of a finished game
+    // Returns right away, they are applied and persisted in the background (see RankUpdater)
+    public void submitRankChanges(Map<String, Integer> deltas) {
+        rankUpdater.submit(deltas);
     }
 
-    // Gets rank from user with 'username'
-    public int getUserRank(String username) {
-        User user = users.get(username);
-        return user != null ? user.getRank() : -1; // Return -1 if user is not found
+    // Visits the users with a rank in [minRank, maxRank], from the lowest rank
+    public void forEachUserByRank(int minRank, int maxRank, UserStore.RankVisitor visitor) {
+        store.scanByRank(minRank, maxRank, visitor);
     }
 
-    // Generates a unique session token
-    public String generateSessionToken() {
-        return UUID.randomUUID().toString();
+    // Gets rank from user with 'username'
+    public int getUserRank(String username) {
+        UserStore.StoredUser user = store.get(username);
+        return user != null ? user.rank() : -1; // Return -1 if user is not found
     }
 
     // Assigns session token
     // Returns not encoded session token
     // Or null if user doesn't exist
     public String assignSessionToken(String username) throws IOException {
-        User user = users.get(username);
-        if (user != null) {
-            String token = generateSessionToken();
-            String encodedToken = tokenEncoder.encode(token);
-            user.setSessionToken(encodedToken);
-            saveUsers();
-            return token;
-        }
+        if (!userExists(username)) return null;
 
-        return null;
+        SessionTokens.Issued token = sessionTokens.issue();
+        // The token and its log record change together
+        ReentrantLock user_lock = lockFor(username);
+        user_lock.lock();
+        try {
+            store.setSessionToken(username, token.stored());
+            userLog.appendAndWait(UserLog.Entry.token(username, token.stored()));
+        } finally {
+            user_lock.unlock();
+        }
+        return token.token();
     }
 
-    // Gets username form a sessionToken
+    // Gets username form a sessionToken, with a single lookup of its selector (see SessionTokens)
     // returns null if no user found with that sessionToken
     public String getUsernameFromToken(String sessionToken) {
-        for (Map.Entry<String, User> entry : users.entrySet()) {
-            String retrievedToken = entry.getValue().getSessionToken();
-            if (retrievedToken != null && tokenEncoder.matches(sessionToken, retrievedToken)) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        String selector = SessionTokens.selectorOf(sessionToken);
+        if (selector == null) return null;
+        String username = store.findByTokenSelector(selector);
+        if (username == null) return null;
+        UserStore.StoredUser user = store.get(username);
+        return user != null && SessionTokens.matches(sessionToken, user.sessionToken()) ? username : null;
     }
 
-    // Creates a new user and adds it to the database
-    public void createUser(String username, String password) throws IOException {
-
-        if (!users.containsKey(username)) {
-            String encodedPassword = passwordEncoder.encode(password);
-            User newUser = new User(encodedPassword, 100);
-            users.put(username, newUser);
-            saveUsers();
+    // Creates a new user with an already hashed password (see PasswordHasher) and adds it to the database
+    // Atomic, only one of concurrent creations of the same username succeeds
+    public void createUser(String username, String encodedPassword) throws IOException {
+        if (store.create(username, encodedPassword, NEW_USER_RANK)) {
+            userLog.appendAndWait(UserLog.Entry.user(username, encodedPassword, NEW_USER_RANK));
         } else {
             throw new IllegalArgumentException("Username already exists.");
         }
     }
 
-    public static class User {
-        private String password;
-        private int rank;
-        private String sessionToken;
-
-        public User() {
-        }
-
-        public User(String password, int rank) {
-            this.password = password;
-            this.rank = rank;
-        }
-
-        public String getPassword() {
-            return password;
-        }
-
-        public int getRank() {
-            return rank;
-        }
-
-        public void setRank(Integer rank) {
-            this.rank = rank;
-        }
-
-        public String getSessionToken() {
-            return sessionToken;
-        }
-    
-        public void setSessionToken(String sessionToken) {
-            this.sessionToken = sessionToken;
-        }
-
+    // Lock of the stripe 'username' belongs to
+    private ReentrantLock lockFor(String username) {
+        return user_locks[Math.floorMod(username.hashCode(), USER_LOCK_STRIPES)];
     }
 
     // Main method only for testing purposes
     public static void main(String[] args) {
         try {
             UserDatabase userDatabase = new UserDatabase();
-            
+            PasswordHasher passwordHasher = new PasswordHasher();
+
             // Test authentication
-            System.out.println("Authenticating user1 with correct password: " + userDatabase.authenticate("user1", "password1")); // true
-            System.out.println("Authenticating user2 with wrong password: " + userDatabase.authenticate("user2", "wrongpassword")); // false
+            System.out.println("Authenticating user1 with correct password: " + passwordHasher.matches("password1", userDatabase.getEncodedPassword("user1"))); // true
+            System.out.println("Authenticating user2 with wrong password: " + passwordHasher.matches("wrongpassword", userDatabase.getEncodedPassword("user2"))); // false
+
+            // Test rank scan
+            userDatabase.forEachUserByRank(0, Integer.MAX_VALUE, (username, user) -> {
+                System.out.println(username + ": " + user.rank());
+                return true;
+            });
 
-        } catch (IOException e) {
+        } catch (IOException | PasswordHasher.BusyException e) {
             e.printStackTrace();
         }
     }
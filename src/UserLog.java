@@ -0,0 +1,253 @@
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Write-ahead log of the UserDatabase
+// Every change is appended as a small record (one JSON line) instead of rewriting the whole database
+// - Group commit: a single writer thread takes every record waiting in the queue, writes them
+//   and syncs the file once for all of them, then tells their callers they are durable
+// - Records hold absolute values (the new rank, not the increment), so replaying one twice is harmless
+// - The log is split in segments (users.log.<n>). Once the current one grows past SEGMENT_SIZE, the writer
+//   starts a new segment and the older ones are compacted in the background: the database writes a snapshot
+//   (see Snapshotter), then the segments it covers are deleted
+// - Recovery loads the snapshot and replays every segment left, in order
+//   A crash may leave a torn record at the end of a segment, it is ignored
+public class UserLog {
+    // Size (in bytes) after which a new segment is started and the old ones compacted
+    private static final long SEGMENT_SIZE = 1 << 20;
+    private static final String SEGMENT_PREFIX = "users.log.";
+
+    // A change to a user, as written in the log
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Entry(String type, String username, String password, Integer rank, String sessionToken) {
+        static final String USER = "user";
+        static final String RANK = "rank";
+        static final String TOKEN = "token";
+
+        static Entry user(String username, String password, int rank) {
+            return new Entry(USER, username, password, rank, null);
+        }
+
+        static Entry rank(String username, int rank) {
+            return new Entry(RANK, username, null, rank, null);
+        }
+
+        static Entry token(String username, String sessionToken) {
+            return new Entry(TOKEN, username, null, null, sessionToken);
+        }
+    }
+
+    // Writes a snapshot of the whole database, including at least every record applied so far
+    public interface Snapshotter {
+        void writeSnapshot() throws IOException;
+    }
+
+    private record Pending(byte[] line, CompletableFuture<Void> durable) {
+    }
+
+    private final Path directory;
+    private final Snapshotter snapshotter;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    // - Only touched by the writer thread (and the constructor) -
+    private long segment;
+    private FileChannel channel;
+    private long segmentSize;
+
+    // Replays the segments found in 'directory' through 'replay', then starts logging to a new segment
+    public UserLog(Path directory, Snapshotter snapshotter, Consumer<Entry> replay) throws IOException {
+        this.directory = directory;
+        this.snapshotter = snapshotter;
+
+        List<Long> segments = segments();
+        int replayed = 0;
+        for (long existing : segments) {
+            replayed += replaySegment(existing, replay);
+        }
+        if (replayed > 0) {
+            System.out.println("[USERS] Replayed " + replayed + " log records from " + segments.size() + " segments");
+        }
+
+        this.segment = segments.isEmpty() ? 1 : segments.getLast() + 1;
+        openSegment();
+        // Fold what was replayed into the snapshot
+        if (!segments.isEmpty()) compact(segment);
+
+        Thread writer = new Thread(this::writeLoop, "user-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Queues 'entry' to be written
+    // The future completes once it is durable, or fails with the IOException that prevented it
+    public CompletableFuture<Void> append(Entry entry) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        try {
+            byte[] line = (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+            pending.add(new Pending(line, durable));
+        } catch (JsonProcessingException e) {
+            durable.completeExceptionally(e);
+        }
+        return durable;
+    }
+
+    // Queues 'entries' to be written together, with a single sync
+    public CompletableFuture<Void> appendAll(List<Entry> entries) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        if (entries.isEmpty()) {
+            durable.complete(null);
+            return durable;
+        }
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (Entry entry : entries) {
+                lines.append(objectMapper.writeValueAsString(entry)).append('\n');
+            }
+            pending.add(new Pending(lines.toString().getBytes(StandardCharsets.UTF_8), durable));
+        } catch (JsonProcessingException e) {
+            durable.completeExceptionally(e);
+        }
+        return durable;
+    }
+
+    // Appends 'entry' and waits until it is durable
+    public void appendAndWait(Entry entry) throws IOException {
+        try {
+            append(entry).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+
+            try {
+                ByteBuffer[] lines = new ByteBuffer[batch.size()];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = ByteBuffer.wrap(batch.get(i).line());
+                    segmentSize += lines[i].remaining();
+                }
+                while (lines[lines.length - 1].hasRemaining()) {
+                    channel.write(lines);
+                }
+                // One sync for the whole batch
+                channel.force(false);
+                for (Pending record : batch) {
+                    record.durable().complete(null);
+                }
+            } catch (IOException e) {
+                System.out.println("[USERS] Failed to write the log: " + e.getMessage());
+                for (Pending record : batch) {
+                    record.durable().completeExceptionally(e);
+                }
+            }
+            batch.clear();
+
+            if (segmentSize >= SEGMENT_SIZE && !compacting.get()) {
+                try {
+                    channel.close();
+                    segment++;
+                    openSegment();
+                    compact(segment);
+                } catch (IOException e) {
+                    System.out.println("[USERS] Failed to start a new log segment: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Snapshots the database in the background, then deletes the segments before 'firstKept'
+    private void compact(long firstKept) {
+        if (!compacting.compareAndSet(false, true)) return;
+
+        Thread.startVirtualThread(() -> {
+            long start = System.nanoTime();
+            try {
+                // Every record of the older segments was applied before it was queued, so the snapshot has it
+                snapshotter.writeSnapshot();
+                int deleted = 0;
+                for (long old : segments()) {
+                    if (old >= firstKept) break;
+                    Files.delete(segmentPath(old));
+                    deleted++;
+                }
+                String log = String.format("[USERS] Compacted %d log segments into the snapshot (%.1f ms)", deleted, (System.nanoTime() - start) / 1e6);
+                System.out.println(log);
+            } catch (IOException e) {
+                // The segments are kept, and replayed on recovery
+                System.out.println("[USERS] Failed to compact the log: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    // Returns the number of records replayed
+    private int replaySegment(long number, Consumer<Entry> replay) throws IOException {
+        // Lenient decoding, a torn record may end in the middle of a character
+        String[] lines = new String(Files.readAllBytes(segmentPath(number)), StandardCharsets.UTF_8).split("\n");
+        int replayed = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.isBlank()) continue;
+            try {
+                replay.accept(objectMapper.readValue(line, Entry.class));
+                replayed++;
+            } catch (JsonProcessingException e) {
+                if (i == lines.length - 1) {
+                    System.out.println("[USERS] Ignored a torn record at the end of " + segmentPath(number));
+                    break;
+                }
+                throw new IOException("Corrupted record " + (i + 1) + " in " + segmentPath(number), e);
+            }
+        }
+        return replayed;
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = channel.size();
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number);
+    }
+
+    // Numbers of the segments in the directory, in order
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.substring(SEGMENT_PREFIX.length()).matches("\\d+"))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.io.IOException;
+
+// Storage engine of the UserDatabase (see JsonUserStore and LsmUserStore)
+// Changes are made durable by the UserDatabase's write-ahead log (UserLog), a store only has to keep them
+// until the next checkpoint, which persists every change made before it was called
+// Recovery opens the store as of its last checkpoint, and the log replays the changes made since
+// Thread safe, including concurrent changes to the same user: the UserDatabase may change a user's rank
+// (RankUpdater) while it assigns him a session token (assignSessionToken), neither change may be lost
+public interface UserStore {
+
+    // A user as stored
+    record StoredUser(String password, int rank, String sessionToken) {
+    }
+
+    interface RankVisitor {
+        // Returns false to stop the scan
+        boolean visit(String username, StoredUser user);
+    }
+
+    // Returns null if the user is not found
+    StoredUser get(String username);
+
+    // Adds a new user, unless one with the same username exists
+    // Returns false if it did
+    boolean create(String username, String password, int rank);
+
+    // Returns the new rank, or -1 if the user is not found
+    int addToRank(String username, int addedRank);
+
+    void setRank(String username, int rank);
+
+    // 'sessionToken' is the token as stored (see SessionTokens), indexed by its selector
+    void setSessionToken(String username, String sessionToken);
+
+    // Returns the username whose session token has 'selector', or null
+    String findByTokenSelector(String selector);
+
+    // Visits the users with a rank in [minRank, maxRank], from the lowest rank
+    void scanByRank(int minRank, int maxRank, RankVisitor visitor);
+
+    // Persists every change made so far
+    void checkpoint() throws IOException;
+}
@@ -0,0 +1,307 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Compact binary framing, negotiated during the WELCOME handshake (see Communication.BINARY)
+// Frame -> [length varint][opcode byte][payload]
+// 'length' counts the opcode and the payload bytes
+// Payload depends on the opcode:
+// - Fixed protocol messages (PING, PONG, AUTH_USERNAME, ...) -> no payload
+// - RECONNECT_SUCCESS, QUEUE_POSITION -> zigzag varint
+// - ANSWER -> zigzag varint, 1 for True and 0 for False
+// - TOKEN, TEXT (any other line) -> UTF-8 text
+// Both sides keep handling lines (Strings), frames are translated at the edges
+public final class WireProtocol {
+
+    // Largest frame (or text line) accepted from the other side
+    public static final int MAX_FRAME_LENGTH = 8192;
+
+    // - Opcodes -
+    public static final byte TEXT = 0;
+    public static final byte WELCOME = 1;
+    public static final byte CLIENT_AUTH = 2;
+    public static final byte AUTH_USERNAME = 3;
+    public static final byte AUTH_PASSWORD = 4;
+    public static final byte AUTH_SUCCESS = 5;
+    public static final byte AUTH_FAIL = 6;
+    public static final byte AUTH_ALREADY_LOGGED_IN = 7;
+    public static final byte PING = 8;
+    public static final byte PONG = 9;
+    public static final byte TOKEN = 10;
+    public static final byte REQUEST_TOKEN = 11;
+    public static final byte CLIENT_RECONNECT = 12;
+    public static final byte CLIENT_DISCONNECT = 13;
+    public static final byte RECONNECT_SUCCESS = 14;
+    public static final byte RECONNECT_FAIL = 15;
+    public static final byte RECONNECT_ALREADY_LOGGED_IN = 16;
+    public static final byte CLIENT_REGISTER = 17;
+    public static final byte REGISTER_USERNAME = 18;
+    public static final byte REGISTER_PASSWORD = 19;
+    public static final byte REGISTER_SUCCESS = 20;
+    public static final byte REGISTER_FAIL = 21;
+    public static final byte PROVIDE_ANSWER = 22;
+    public static final byte ANSWER = 23;
+    public static final byte REQUEUE_OR_QUIT = 24;
+    public static final byte REQUEUE = 25;
+    public static final byte QUIT = 26;
+    public static final byte QUEUE_POSITION = 27;
+
+    // Messages without payload, indexed by opcode
+    private static final String[] COMMANDS = new String[QUEUE_POSITION + 1];
+    private static final Map<String, Byte> OPCODES = new HashMap<>();
+
+    static {
+        register(WELCOME, Communication.WELCOME);
+        register(CLIENT_AUTH, Communication.CLIENT_AUTH);
+        register(AUTH_USERNAME, Communication.AUTH_USERNAME);
+        register(AUTH_PASSWORD, Communication.AUTH_PASSWORD);
+        register(AUTH_SUCCESS, Communication.AUTH_SUCCESS);
+        register(AUTH_FAIL, Communication.AUTH_FAIL);
+        register(AUTH_ALREADY_LOGGED_IN, Communication.AUTH_ALREADY_LOGGED_IN);
+        register(PING, Communication.PING);
+        register(PONG, Communication.PONG);
+        register(REQUEST_TOKEN, Communication.REQUEST_TOKEN);
+        register(CLIENT_RECONNECT, Communication.CLIENT_RECONNECT);
+        register(CLIENT_DISCONNECT, Communication.CLIENT_DISCONNECT);
+        register(RECONNECT_FAIL, Communication.RECONNECT_FAIL);
+        register(RECONNECT_ALREADY_LOGGED_IN, Communication.RECONNECT_ALREADY_LOGGED_IN);
+        register(CLIENT_REGISTER, Communication.CLIENT_REGISTER);
+        register(REGISTER_USERNAME, Communication.REGISTER_USERNAME);
+        register(REGISTER_PASSWORD, Communication.REGISTER_PASSWORD);
+        register(REGISTER_SUCCESS, Communication.REGISTER_SUCCESS);
+        register(REGISTER_FAIL, Communication.REGISTER_FAIL);
+        register(PROVIDE_ANSWER, Communication.PROVIDE_ANSWER);
+        register(REQUEUE_OR_QUIT, Communication.REQUEUE_OR_QUIT);
+        register(REQUEUE, Communication.REQUEUE);
+        register(QUIT, Communication.QUIT);
+    }
+
+    // Text content of the messages that carry one
+    private static final String TOKEN_PREFIX = Communication.TOKEN + " ";
+    private static final String RECONNECT_SUCCESS_PREFIX = Communication.RECONNECT_SUCCESS + " ";
+    private static final String QUEUE_POSITION_PREFIX = Communication.QUEUE_POSITION + " ";
+    // Answers as the text protocol sends them
+    private static final String TRUE = "True";
+    private static final String FALSE = "False";
+
+    private WireProtocol() {
+    }
+
+    private static void register(byte opcode, String command) {
+        COMMANDS[opcode] = command;
+        OPCODES.put(command, opcode);
+    }
+
+    // Returns the message without payload matching 'opcode', or null if it has a payload
+    public static String commandOf(int opcode) {
+        return opcode > 0 && opcode < COMMANDS.length ? COMMANDS[opcode] : null;
+    }
+
+    // Whether an answer to WELCOME asks for binary frames, e.g. "CLIENT_AUTH BINARY"
+    public static boolean requestsBinary(String actionLine) {
+        String[] actionParts = actionLine.split(" ");
+        if (actionParts.length < 2 || !actionParts[1].equals(Communication.BINARY)) return false;
+
+        switch (actionParts[0]) {
+            case Communication.CLIENT_AUTH:
+            case Communication.CLIENT_RECONNECT:
+            case Communication.CLIENT_REGISTER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Encodes a protocol line as a frame
+    public static void writeFrame(OutputStream output, String message) throws IOException {
+        Byte opcode = OPCODES.get(message);
+        if (opcode != null) {
+            writeVarint(output, 1);
+            output.write(opcode);
+        } else if (message.startsWith(TOKEN_PREFIX)) {
+            writeTextFrame(output, TOKEN, message.substring(TOKEN_PREFIX.length()));
+        } else if (message.startsWith(RECONNECT_SUCCESS_PREFIX)) {
+            writeNumberFrame(output, RECONNECT_SUCCESS, parseNumber(message, RECONNECT_SUCCESS_PREFIX.length()));
+        } else if (message.startsWith(QUEUE_POSITION_PREFIX)) {
+            writeNumberFrame(output, QUEUE_POSITION, parseNumber(message, QUEUE_POSITION_PREFIX.length()));
+        } else {
+            writeTextFrame(output, TEXT, message);
+        }
+    }
+
+    // Encodes a True/False answer
+    public static void writeAnswer(OutputStream output, boolean answer) throws IOException {
+        writeNumberFrame(output, ANSWER, answer ? 1 : 0);
+    }
+
+    private static void writeTextFrame(OutputStream output, byte opcode, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarint(output, bytes.length + 1);
+        output.write(opcode);
+        output.write(bytes);
+    }
+
+    private static void writeNumberFrame(OutputStream output, byte opcode, int number) throws IOException {
+        int zigzag = (number << 1) ^ (number >> 31);
+        writeVarint(output, varintSize(zigzag) + 1);
+        output.write(opcode);
+        writeVarint(output, zigzag);
+    }
+
+    private static int parseNumber(String message, int start) throws ProtocolException {
+        try {
+            return Integer.parseInt(message, start, message.length(), 10);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid number in '" + message + "'");
+        }
+    }
+
+    // Decodes a frame back into the line the text protocol would have sent
+    // Messages without payload map to the Communication constants, so no String is allocated
+    public static String toLine(int opcode, byte[] payload, int offset, int length) throws IOException {
+        switch (opcode) {
+            case TEXT:
+                return new String(payload, offset, length, StandardCharsets.UTF_8);
+            case TOKEN:
+                return TOKEN_PREFIX + new String(payload, offset, length, StandardCharsets.UTF_8);
+            case RECONNECT_SUCCESS:
+                return RECONNECT_SUCCESS_PREFIX + readNumber(payload, offset, length);
+            case QUEUE_POSITION:
+                return QUEUE_POSITION_PREFIX + readNumber(payload, offset, length);
+            case ANSWER:
+                return readNumber(payload, offset, length) != 0 ? TRUE : FALSE;
+            default:
+                String command = commandOf(opcode);
+                if (command == null) {
+                    throw new ProtocolException("Unknown opcode " + opcode);
+                }
+                return command;
+        }
+    }
+
+    // Reads a zigzag varint payload
+    public static int readNumber(byte[] payload, int offset, int length) throws ProtocolException {
+        int zigzag = 0;
+        for (int i = 0, shift = 0; i < length && shift < 35; i++, shift += 7) {
+            zigzag |= (payload[offset + i] & 0x7F) << shift;
+            if ((payload[offset + i] & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new ProtocolException("Malformed number");
+    }
+
+    public static void writeVarint(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    // Reads text lines or frames from a blocking stream, reusing a single buffer
+    public static class Reader {
+        private final InputStream input;
+        private byte[] buffer = new byte[128];
+        private int opcode;
+        private int payloadLength;
+
+        public Reader(InputStream input) {
+            this.input = input;
+        }
+
+        // Reads a '\n' terminated UTF-8 line
+        // Returns null at the end of the stream
+        public String readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = input.read()) != '\n') {
+                if (b == -1) {
+                    if (length == 0) return null;
+                    break;
+                }
+                ensureCapacity(length + 1);
+                buffer[length++] = (byte) b;
+            }
+            if (length > 0 && buffer[length - 1] == '\r') length--;
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        // Reads the next frame
+        // Returns false at the end of the stream
+        public boolean nextFrame() throws IOException {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = input.read();
+                if (b == -1) {
+                    if (shift == 0) return false;
+                    throw new EOFException("Stream ended inside a frame");
+                }
+                if (shift > 28) {
+                    throw new ProtocolException("Malformed frame length");
+                }
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+            }
+
+            if (length < 1 || length > MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Invalid frame length " + length);
+            }
+            ensureCapacity(length);
+            int read = 0;
+            while (read < length) {
+                int count = input.read(buffer, read, length - read);
+                if (count == -1) {
+                    throw new EOFException("Stream ended inside a frame");
+                }
+                read += count;
+            }
+
+            opcode = buffer[0] & 0xFF;
+            payloadLength = length - 1;
+            return true;
+        }
+
+        // - Current frame -
+        public int opcode() {
+            return opcode;
+        }
+
+        public int number() throws ProtocolException {
+            return readNumber(buffer, 1, payloadLength);
+        }
+
+        public String text() {
+            return new String(buffer, 1, payloadLength, StandardCharsets.UTF_8);
+        }
+
+        public String toLine() throws IOException {
+            return WireProtocol.toLine(opcode, buffer, 1, payloadLength);
+        }
+
+        private void ensureCapacity(int capacity) throws ProtocolException {
+            if (capacity > MAX_FRAME_LENGTH) {
+                throw new ProtocolException("Line exceeds " + MAX_FRAME_LENGTH + " bytes");
+            }
+            if (capacity > buffer.length) {
+                byte[] larger = new byte[Math.min(MAX_FRAME_LENGTH, Math.max(capacity, buffer.length * 2))];
+                System.arraycopy(buffer, 0, larger, 0, buffer.length);
+                buffer = larger;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package game_logic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Read-only view of a compiled question file (see QuestionCompiler), memory mapped
+// Only the header, the dictionary and the offset table are read when opening it,
+// the text of a question is decoded when the question is drawn, so the bulk of the file stays off the heap
+// (and is paged in by the OS only for the questions that are actually asked)
+//
+// Layout (big endian):
+//   header:     magic, version, count, dictionary offset, table offset (ints)
+//   records:    per question: category, difficulty, type (u16 dictionary ids), number of incorrect answers (u8),
+//               then question, correct answer and each incorrect answer as u16 length + UTF-8 bytes
+//   dictionary: count (int), then each string as u16 length + UTF-8 bytes
+//   table:      offset of each record (int)
+//
+// Compiled files must be replaced (see QuestionCompiler, which renames a new file over the old one),
+// never rewritten in place, since running games may still read the old mapping
+// Thread safe, every read is absolute
+public class CompiledQuestions {
+    static final int MAGIC = 0x54525651; // "TRVQ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5 * Integer.BYTES;
+    // Dictionary id of a missing value
+    static final int NO_VALUE = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int tableOffset;
+    private final String[] dictionary;
+
+    private CompiledQuestions(ByteBuffer buffer, Path path) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a compiled question file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has version " + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        this.count = buffer.getInt(8);
+        int dictionaryOffset = buffer.getInt(12);
+        this.tableOffset = buffer.getInt(16);
+        if (tableOffset + (long) count * Integer.BYTES > buffer.limit()) {
+            throw new IOException(path + " is truncated");
+        }
+
+        // Small (categories, difficulties and types), decoded once
+        int dictionarySize = buffer.getInt(dictionaryOffset);
+        this.dictionary = new String[dictionarySize];
+        int position = dictionaryOffset + Integer.BYTES;
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary[i] = readString(position);
+            position += Short.BYTES + length(position);
+        }
+    }
+
+    public static CompiledQuestions open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CompiledQuestions(buffer, path);
+        }
+    }
+
+    // True if 'path' starts like a compiled question file
+    public static boolean isCompiled(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Keep reading
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String category(int id) {
+        return dictionaryValue(record(id));
+    }
+
+    public String difficulty(int id) {
+        return dictionaryValue(record(id) + Short.BYTES);
+    }
+
+    public String type(int id) {
+        return dictionaryValue(record(id) + 2 * Short.BYTES);
+    }
+
+    // Decodes the whole question
+    public TriviaResult get(int id) {
+        int position = record(id);
+        TriviaResult question = new TriviaResult();
+        question.setCategory(dictionaryValue(position));
+        question.setDifficulty(dictionaryValue(position + Short.BYTES));
+        question.setType(dictionaryValue(position + 2 * Short.BYTES));
+        int incorrectCount = buffer.get(position + 3 * Short.BYTES) & 0xFF;
+        position += 3 * Short.BYTES + 1;
+
+        question.setQuestion(readString(position));
+        position += Short.BYTES + length(position);
+        question.setCorrectAnswer(readString(position));
+        position += Short.BYTES + length(position);
+
+        String[] incorrectAnswers = new String[incorrectCount];
+        for (int i = 0; i < incorrectCount; i++) {
+            incorrectAnswers[i] = readString(position);
+            position += Short.BYTES + length(position);
+        }
+        question.setIncorrectAnswers(List.of(incorrectAnswers));
+        return question;
+    }
+
+    private int record(int id) {
+        return buffer.getInt(tableOffset + id * Integer.BYTES);
+    }
+
+    private String dictionaryValue(int position) {
+        int dictionaryId = buffer.getShort(position) & 0xFFFF;
+        return dictionaryId == NO_VALUE ? null : dictionary[dictionaryId];
+    }
+
+    private int length(int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private String readString(int position) {
+        byte[] bytes = new byte[length(position)];
+        buffer.get(position + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package game_logic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Trivia questions shared by every Game, indexed in a QuestionStore
+// The file is either JSON, streamed (see QuestionLoader), or compiled, memory mapped (see CompiledQuestions)
+// It is loaded once, and again only when it changes (see reloadIfChanged)
+// A loaded QuestionStore is never modified, a reload swaps it as a whole,
+// so games read it without copying or locking, and a running game keeps the questions it started with
+public class QuestionBank {
+    private final Path path;
+    private volatile QuestionStore questions;
+
+    // Version of the file that was loaded
+    private FileTime lastModified;
+    private long lastSize;
+    private final ReentrantLock reload_lock = new ReentrantLock();
+
+    public QuestionBank(String path) throws IOException {
+        this.path = Path.of(path);
+        reload_lock.lock();
+        try {
+            load();
+        } finally {
+            reload_lock.unlock();
+        }
+    }
+
+    public QuestionStore getQuestions() {
+        return questions;
+    }
+
+    // Loads the file again if it changed since the last load
+    // On failure (e.g. the file is being written), the current questions are kept and the next call tries again
+    // Returns true if new questions were loaded
+    public boolean reloadIfChanged() {
+        if (!reload_lock.tryLock()) return false; // A reload is already running
+
+        try {
+            if (Files.getLastModifiedTime(path).equals(lastModified) && Files.size(path) == lastSize) return false;
+            load();
+            return true;
+        } catch (IOException e) {
+            System.out.println("[QUESTIONS] Failed to reload " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            reload_lock.unlock();
+        }
+    }
+
+    // - Called with reload_lock held -
+    private void load() throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+
+        QuestionStore loaded = CompiledQuestions.isCompiled(path)
+                ? QuestionStore.compiled(CompiledQuestions.open(path))
+                : QuestionLoader.load(path);
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        // Rough, the garbage collector may run meanwhile
+        String log = String.format("[QUESTIONS] Loaded %d questions from %s in %d ms (heap in use %d MB, %+d MB)", loaded.size(),
+                path, elapsed, heapAfter >> 20, (heapAfter - heapBefore) >> 20);
+        System.out.println(log);
+
+        this.questions = loaded;
+        this.lastModified = modified;
+        this.lastSize = size;
+    }
+}
@@ -0,0 +1,170 @@
+package game_logic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Offline compiler from a question file (JSON, see QuestionLoader) to a compiled one (see CompiledQuestions)
+// The JSON file is streamed, records are written as they are read, so only the offsets stay in memory
+// The output is written next to the target and renamed over it once complete,
+// so a running Server never maps a half written file
+// Usage: java game_logic.QuestionCompiler <questions.json> <questions.bin>
+public class QuestionCompiler {
+    // Compiled files are mapped as a single buffer
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private final Map<String, Integer> dictionaryIds = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private int[] offsets = new int[1024];
+    private int count = 0;
+    private long position = CompiledQuestions.HEADER_SIZE;
+
+    private QuestionCompiler() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java game_logic.QuestionCompiler <questions.json> <questions.bin>");
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            Path source = Path.of(args[0]);
+            Path target = Path.of(args[1]);
+            int count = compile(source, target);
+
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            String log = String.format("[QUESTIONS] Compiled %d questions from %s (%d MB) to %s (%d MB) in %d ms", count,
+                    source, Files.size(source) >> 20, target, Files.size(target) >> 20, elapsed);
+            System.out.println(log);
+        } catch (IOException e) {
+            System.out.println("[QUESTIONS] Failed to compile: " + e.getMessage());
+        }
+    }
+
+    // Returns the number of questions compiled
+    public static int compile(Path source, Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            int count = new QuestionCompiler().write(source, temporary);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private int write(Path source, Path target) throws IOException {
+        try (OutputStream file = Files.newOutputStream(target);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.write(new byte[CompiledQuestions.HEADER_SIZE]); // Filled in at the end
+
+            QuestionLoader.forEach(source, question -> writeRecord(out, question));
+            if (count == 0) {
+                throw new IOException("No questions in " + source);
+            }
+
+            int dictionaryOffset = checkedPosition();
+            out.writeInt(dictionary.size());
+            position += Integer.BYTES;
+            for (String value : dictionary) {
+                writeString(out, value);
+            }
+
+            int tableOffset = checkedPosition();
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offsets[i]);
+            }
+            position += (long) count * Integer.BYTES;
+            checkedPosition();
+
+            out.flush();
+            writeHeader(target, dictionaryOffset, tableOffset);
+        }
+        return count;
+    }
+
+    private void writeHeader(Path target, int dictionaryOffset, int tableOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CompiledQuestions.HEADER_SIZE);
+        header.putInt(CompiledQuestions.MAGIC).putInt(CompiledQuestions.VERSION).putInt(count)
+                .putInt(dictionaryOffset).putInt(tableOffset).flip();
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, TriviaResult question) throws IOException {
+        List<String> incorrectAnswers = question.getIncorrectAnswers() != null ? question.getIncorrectAnswers() : List.of();
+        if (incorrectAnswers.size() > 0xFF) {
+            throw new IOException("Too many incorrect answers in question " + count);
+        }
+
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = checkedPosition();
+
+        out.writeShort(dictionaryId(question.getCategory()));
+        out.writeShort(dictionaryId(question.getDifficulty()));
+        out.writeShort(dictionaryId(question.getType()));
+        out.writeByte(incorrectAnswers.size());
+        position += 3 * Short.BYTES + 1;
+
+        writeString(out, question.getQuestion());
+        writeString(out, question.getCorrectAnswer());
+        for (String answer : incorrectAnswers) {
+            writeString(out, answer);
+        }
+    }
+
+    private int dictionaryId(String value) throws IOException {
+        if (value == null) return CompiledQuestions.NO_VALUE;
+
+        Integer id = dictionaryIds.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            if (id == CompiledQuestions.NO_VALUE) {
+                throw new IOException("Too many categories, difficulties and types");
+            }
+            dictionaryIds.put(value, id);
+            dictionary.add(value);
+        }
+        return id;
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Text too long in question " + count);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        position += Short.BYTES + bytes.length;
+    }
+
+    private int checkedPosition() throws IOException {
+        if (position > MAX_FILE_SIZE) {
+            throw new IOException("Compiled file would be over " + (MAX_FILE_SIZE >> 20) + " MB");
+        }
+        return (int) position;
+    }
+}
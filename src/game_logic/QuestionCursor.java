@@ -0,0 +1,70 @@
+package game_logic;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Draws the questions of a pool in a random order, without repeats until every one of them was drawn
+// The order is a random permutation of the pool computed on the fly, never stored:
+// a small Feistel network with random keys maps the i-th draw to a position, which is a bijection over
+// the next power of four, and positions past the end of the pool are mapped again until they fall inside it
+// So drawing is O(1) (a few rounds on average) and allocates nothing, whatever the size of the pool
+// Not thread safe, each game uses its own cursor
+public class QuestionCursor {
+    private static final int ROUNDS = 4;
+
+    private final QuestionStore store;
+    private final int[] pool;
+    private final int halfBits;
+    private final int halfMask;
+    private final int[] keys = new int[ROUNDS];
+    private int drawn;
+
+    QuestionCursor(QuestionStore store, int[] pool) {
+        this.store = store;
+        this.pool = pool;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, pool.length - 1));
+        this.halfBits = Math.max(1, (bits + 1) / 2);
+        this.halfMask = (1 << halfBits) - 1;
+        shuffle();
+    }
+
+    public boolean hasQuestions() {
+        return pool.length > 0;
+    }
+
+    public TriviaResult next() {
+        if (pool.length == 0) {
+            throw new NoSuchElementException("No questions match the cursor");
+        }
+        // Every question was drawn, start over in a new order
+        if (drawn == pool.length) shuffle();
+
+        int position = permute(drawn++);
+        while (position >= pool.length) {
+            position = permute(position);
+        }
+        return store.get(pool[position]);
+    }
+
+    private void shuffle() {
+        drawn = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ROUNDS; i++) {
+            keys[i] = random.nextInt();
+        }
+    }
+
+    // Bijection over [0, 2^(2 * halfBits))
+    private int permute(int value) {
+        int left = value >>> halfBits;
+        int right = value & halfMask;
+        for (int key : keys) {
+            int mixed = (right ^ key) * 0x9E3779B1;
+            mixed ^= mixed >>> 15;
+            int next = left ^ (mixed & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+}
@@ -0,0 +1,122 @@
+package game_logic;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+// Streaming loader for question files in JSON (same format as TriviaResponse)
+// Reads the file token by token and indexes every question as soon as it is parsed,
+// so no tree of the whole file is ever built, memory only grows with the QuestionStore itself
+// Values repeated across questions (categories, difficulties, types, answers) are shared instead of copied,
+// which matters for big files where e.g. every boolean question has the same answers
+public class QuestionLoader {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    // Shared copies of the values already read
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<List<String>, List<String>> answerLists = new HashMap<>();
+
+    // Receives the questions one by one, as they are read
+    public interface QuestionHandler {
+        void accept(TriviaResult question) throws IOException;
+    }
+
+    private QuestionLoader() {
+    }
+
+    public static QuestionStore load(Path path) throws IOException {
+        QuestionStore.Builder builder = new QuestionStore.Builder();
+        forEach(path, builder::add);
+
+        if (builder.size() == 0) {
+            throw new IOException("No questions in " + path);
+        }
+        return builder.build();
+    }
+
+    // Reads the questions of 'path' in order, handing each one to 'handler' as soon as it is parsed
+    public static void forEach(Path path, QuestionHandler handler) throws IOException {
+        new QuestionLoader().read(path, handler);
+    }
+
+    private void read(Path path, QuestionHandler handler) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(path.toFile())) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("results")) {
+                    expect(value, JsonToken.START_ARRAY, parser);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        handler.accept(readQuestion(parser));
+                    }
+                    expect(parser.currentToken(), JsonToken.END_ARRAY, parser);
+                } else {
+                    parser.skipChildren(); // e.g. response_code
+                }
+            }
+        }
+    }
+
+    // Reads the fields of a question, the parser being at its START_OBJECT
+    private TriviaResult readQuestion(JsonParser parser) throws IOException {
+        TriviaResult question = new TriviaResult();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "type":
+                    question.setType(shared(parser.getValueAsString()));
+                    break;
+                case "difficulty":
+                    question.setDifficulty(shared(parser.getValueAsString()));
+                    break;
+                case "category":
+                    question.setCategory(shared(parser.getValueAsString()));
+                    break;
+                case "question":
+                    question.setQuestion(parser.getValueAsString());
+                    break;
+                case "correct_answer":
+                    question.setCorrectAnswer(shared(parser.getValueAsString()));
+                    break;
+                case "incorrect_answers":
+                    expect(value, JsonToken.START_ARRAY, parser);
+                    List<String> answers = new ArrayList<>(1);
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        answers.add(shared(parser.getValueAsString()));
+                    }
+                    question.setIncorrectAnswers(answerLists.computeIfAbsent(answers, List::copyOf));
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+
+        if (question.getQuestion() == null || question.getCorrectAnswer() == null) {
+            throw new IOException("Incomplete question at " + parser.getCurrentLocation());
+        }
+        return question;
+    }
+
+    private String shared(String value) {
+        if (value == null) return null;
+        return strings.computeIfAbsent(value, v -> v);
+    }
+
+    private static void expect(JsonToken token, JsonToken expected, JsonParser parser) throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but got " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+}
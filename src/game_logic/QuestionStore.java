@@ -0,0 +1,140 @@
+package game_logic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// Read-only index of questions by category, difficulty and type
+// Every combination of the three, each of them possibly "any" (null), maps to the ids of its questions,
+// so selecting a pool is a single lookup and pools are shared by every game
+// Questions are drawn through a QuestionCursor, without repeats
+// The questions themselves are either kept on the heap (see Builder) or decoded from a compiled file
+// when drawn (see compiled), the index is the same
+public class QuestionStore {
+    private static final int[] EMPTY_POOL = new int[0];
+
+    private final int size;
+    private final IntFunction<TriviaResult> questions;
+    private final Map<PoolKey, int[]> pools;
+
+    // A null field matches any value
+    private record PoolKey(String category, String difficulty, String type) {
+    }
+
+    private QuestionStore(int size, IntFunction<TriviaResult> questions, Map<PoolKey, int[]> pools) {
+        this.size = size;
+        this.questions = questions;
+        this.pools = pools;
+    }
+
+    // Indexes the questions of a compiled file, reading only their category, difficulty and type
+    public static QuestionStore compiled(CompiledQuestions file) {
+        Builder builder = new Builder();
+        for (int id = 0; id < file.size(); id++) {
+            builder.index(id, file.category(id), file.difficulty(id), file.type(id));
+        }
+        return new QuestionStore(file.size(), file::get, builder.pools());
+    }
+
+    // Builds a QuestionStore one question at a time, indexing each question as it is added
+    // (see QuestionLoader, which adds them while the file is still being read)
+    public static class Builder {
+        private TriviaResult[] questions = new TriviaResult[64];
+        private int size = 0;
+        private final Map<PoolKey, IdList> pools = new HashMap<>();
+
+        public Builder add(TriviaResult question) {
+            if (size == questions.length) {
+                questions = Arrays.copyOf(questions, size * 2);
+            }
+            int id = size++;
+            questions[id] = question;
+            index(id, question.getCategory(), question.getDifficulty(), question.getType());
+            return this;
+        }
+
+        private void index(int id, String category, String difficulty, String type) {
+            // Every combination of specific values and "any"
+            // A missing value only goes under "any", so the question isn't added to a pool twice
+            for (int mask = 0; mask < 8; mask++) {
+                if ((mask & 1) != 0 && category == null) continue;
+                if ((mask & 2) != 0 && difficulty == null) continue;
+                if ((mask & 4) != 0 && type == null) continue;
+                PoolKey key = new PoolKey(
+                        (mask & 1) != 0 ? category : null,
+                        (mask & 2) != 0 ? difficulty : null,
+                        (mask & 4) != 0 ? type : null);
+                pools.computeIfAbsent(key, k -> new IdList()).add(id);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public QuestionStore build() {
+            TriviaResult[] built = Arrays.copyOf(questions, size);
+            return new QuestionStore(size, id -> built[id], pools());
+        }
+
+        private Map<PoolKey, int[]> pools() {
+            Map<PoolKey, int[]> built = new HashMap<>(pools.size() * 2);
+            pools.forEach((key, ids) -> built.put(key, ids.toArray()));
+            return built;
+        }
+    }
+
+    // Growable list of question ids, without boxing them
+    private static class IdList {
+        private int[] ids = new int[8];
+        private int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TriviaResult get(int id) {
+        return questions.apply(id);
+    }
+
+    // Ids of the questions matching the filters (null for any)
+    // Shared, must not be modified
+    int[] pool(String category, String difficulty, String type) {
+        return pools.getOrDefault(new PoolKey(category, difficulty, type), EMPTY_POOL);
+    }
+
+    // New cursor over the questions matching the filters (null for any)
+    public QuestionCursor cursor(String category, String difficulty, String type) {
+        return new QuestionCursor(this, pool(category, difficulty, type));
+    }
+
+    // Draws 'count' different questions matching the filters (null for any), e.g. 4 medium General Knowledge questions
+    // Returns fewer of them if not enough match, an empty list if none does
+    public List<TriviaResult> sample(int count, String category, String difficulty, String type) {
+        int[] pool = pool(category, difficulty, type);
+        int size = Math.min(count, pool.length);
+        if (size == 0) return List.of();
+
+        // A cursor only repeats a question once it drew the whole pool
+        QuestionCursor cursor = new QuestionCursor(this, pool);
+        TriviaResult[] sample = new TriviaResult[size];
+        for (int i = 0; i < size; i++) {
+            sample[i] = cursor.next();
+        }
+        return Arrays.asList(sample);
+    }
+}
@@ -2,7 +2,7 @@ package game_logic;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class TriviaResponse {
     private int responseCode;
@@ -27,8 +27,7 @@ public class TriviaResponse {
     }
 
     public TriviaResult getRandomQuestion() {
-        Random random = new Random();
-        int randomIndex = random.nextInt(results.size());
+        int randomIndex = ThreadLocalRandom.current().nextInt(results.size());
         return results.get(randomIndex);
     }
 }